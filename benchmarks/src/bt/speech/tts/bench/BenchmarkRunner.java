@@ -0,0 +1,28 @@
+package bt.speech.tts.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all benchmarks, or those matching the first argument, with the GC profiler so that the allocation rate is
+ * reported next to the timings of each benchmark's mode.
+ *
+ * @author &#8904
+ */
+public final class BenchmarkRunner
+{
+    private BenchmarkRunner()
+    {
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options options = new OptionsBuilder().include(args.length > 0 ? args[0] : BenchmarkRunner.class.getPackageName() + ".*")
+                                              .addProfiler(GCProfiler.class)
+                                              .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,27 @@
+package bt.speech.tts.bench;
+
+/**
+ * Texts used by the benchmarks.
+ *
+ * @author &#8904
+ */
+public enum BenchmarkTexts
+{
+    SHORT("Please wait."),
+    LONG("Thank you for calling. All of our agents are currently busy helping other customers. "
+         + "Your call is important to us, so please stay on the line and the next available agent will be with you shortly. "
+         + "If you would like to be called back instead, press one now, and we will call you at the number you are calling from "
+         + "within the next 30 minutes. For questions about an existing order, please have your order number ready.");
+
+    private final String text;
+
+    BenchmarkTexts(String text)
+    {
+        this.text = text;
+    }
+
+    public String getText()
+    {
+        return this.text;
+    }
+}
@@ -0,0 +1,77 @@
+package bt.speech.tts.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bt.speech.tts.BtLocalMaryInterface;
+import marytts.exceptions.SynthesisException;
+import marytts.signalproc.effects.VolumeEffect;
+
+/**
+ * Measures {@link BtLocalMaryInterface#generateAudio(String)} including reading the produced audio.
+ *
+ * @author &#8904
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class GenerateAudioBenchmark
+{
+    @Param({"cmu-slt-hsmm", "dfki-spike-hsmm"})
+    public String voice;
+
+    @Param({"SHORT", "LONG"})
+    public BenchmarkTexts text;
+
+    @Param({"false", "true"})
+    public boolean effects;
+
+    private BtLocalMaryInterface marytts;
+    private final byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setup() throws Exception
+    {
+        this.marytts = new BtLocalMaryInterface();
+        this.marytts.setVoice(this.voice);
+
+        if (this.effects)
+        {
+            VolumeEffect volume = new VolumeEffect();
+            volume.setParams("amount:0.5");
+            this.marytts.setAudioEffects(volume.getFullEffectAsString());
+        }
+    }
+
+    @Benchmark
+    public long generateAudio() throws SynthesisException, IOException
+    {
+        long size = 0;
+
+        try (InputStream audio = this.marytts.generateAudio(this.text.getText()))
+        {
+            for (int read = audio.read(this.buffer); read >= 0; read = audio.read(this.buffer))
+            {
+                size += read;
+            }
+        }
+
+        return size;
+    }
+}
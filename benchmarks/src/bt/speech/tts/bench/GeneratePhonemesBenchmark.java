@@ -0,0 +1,70 @@
+package bt.speech.tts.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import bt.speech.tts.BtLocalMaryInterface;
+import marytts.exceptions.SynthesisException;
+
+/**
+ * Measures the linguistic part of the pipeline, from plain text up to phonemes.
+ *
+ * <p>Phoneme level output is MaryXML, so {@link BtLocalMaryInterface#generateXML(String)} covers it for plain text
+ * input and {@link BtLocalMaryInterface#generateXML(Document)} for tokenized input.</p>
+ *
+ * @author &#8904
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class GeneratePhonemesBenchmark
+{
+    @Param({"SHORT", "LONG"})
+    public BenchmarkTexts text;
+
+    private BtLocalMaryInterface textToPhonemes;
+    private BtLocalMaryInterface tokensToPhonemes;
+    private Document tokens;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        this.textToPhonemes = new BtLocalMaryInterface();
+        this.textToPhonemes.setOutputType("PHONEMES");
+
+        BtLocalMaryInterface textToTokens = new BtLocalMaryInterface();
+        textToTokens.setOutputType("TOKENS");
+        this.tokens = textToTokens.generateXML(this.text.getText());
+
+        this.tokensToPhonemes = new BtLocalMaryInterface();
+        this.tokensToPhonemes.setInputType("TOKENS");
+        this.tokensToPhonemes.setOutputType("PHONEMES");
+    }
+
+    @Benchmark
+    public Document textToPhonemes() throws SynthesisException
+    {
+        return this.textToPhonemes.generateXML(this.text.getText());
+    }
+
+    @Benchmark
+    public Document tokensToPhonemes() throws SynthesisException
+    {
+        return this.tokensToPhonemes.generateXML(this.tokens);
+    }
+}
@@ -0,0 +1,122 @@
+package bt.speech.tts.bench;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bt.speech.tts.BtMary;
+import bt.speech.tts.LatencyHistogram;
+import bt.speech.tts.SynthesisHttpServer;
+
+/**
+ * Sends concurrent requests to a {@link SynthesisHttpServer} and reports throughput, latency percentiles and the
+ * received status codes.
+ *
+ * <p>Arguments, all optional: <code>url concurrency requests revalidate stream</code>. Without a url (or with
+ * <code>-</code>), MARY and an embedded server are started in this JVM on a free port. With revalidate, requests
+ * send the last ETag received for their text, so that repeated texts are answered with 304.</p>
+ *
+ * @author &#8904
+ */
+public final class HttpLoadTest
+{
+    private HttpLoadTest()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        String url = args.length > 0 ? args[0] : "-";
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        boolean revalidate = args.length > 3 && Boolean.parseBoolean(args[3]);
+        boolean stream = args.length > 4 && Boolean.parseBoolean(args[4]);
+        SynthesisHttpServer server = null;
+
+        if (url.equals("-"))
+        {
+            BtMary.startup();
+            server = new SynthesisHttpServer(new InetSocketAddress("127.0.0.1", 0));
+            server.start();
+            url = "http://127.0.0.1:" + server.getPort() + "/synthesize";
+        }
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        LatencyHistogram latency = new LatencyHistogram();
+        Map<Integer, AtomicLong> statusCounts = new ConcurrentSkipListMap<>();
+        Map<String, String> etags = new ConcurrentHashMap<>();
+        AtomicLong failures = new AtomicLong();
+        AtomicLong receivedBytes = new AtomicLong();
+        AtomicInteger next = new AtomicInteger();
+        BenchmarkTexts[] texts = BenchmarkTexts.values();
+        String baseUrl = url;
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < concurrency; i++)
+        {
+            workers.execute(() ->
+            {
+                for (int n = next.getAndIncrement(); n < requests; n = next.getAndIncrement())
+                {
+                    String text = texts[n % texts.length].getText();
+                    HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + "?stream=" + stream + "&text="
+                                                                                     + URLEncoder.encode(text, StandardCharsets.UTF_8)));
+                    String etag = etags.get(text);
+
+                    if (revalidate && etag != null)
+                    {
+                        request.header("If-None-Match", etag);
+                    }
+
+                    long requestStart = System.nanoTime();
+
+                    try
+                    {
+                        HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+                        latency.record(System.nanoTime() - requestStart);
+                        statusCounts.computeIfAbsent(response.statusCode(), code -> new AtomicLong()).incrementAndGet();
+                        receivedBytes.addAndGet(response.body().length);
+                        response.headers().firstValue("ETag").ifPresent(value -> etags.put(text, value));
+                    }
+                    catch (Exception e)
+                    {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d requests with %d connections in %.2f s: %.1f requests/s, %.1f MB received%n",
+                          requests, concurrency, seconds, latency.getCount() / seconds, receivedBytes.get() / 1e6);
+        System.out.printf("latency p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                          latency.getValueAtPercentile(50) / 1e6,
+                          latency.getValueAtPercentile(99) / 1e6,
+                          latency.getMax() / 1e6);
+        System.out.println("status codes " + statusCounts + ", failed requests " + failures.get());
+
+        if (server != null)
+        {
+            server.stop(0);
+            System.exit(0);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package bt.speech.tts.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bt.speech.tts.BtMary;
+
+/**
+ * Measures a cold {@link BtMary#startup()}.
+ *
+ * <p>MARY's module registry can only be filled once per JVM, so every measurement runs in its own fork.</p>
+ *
+ * @author &#8904
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark
+{
+    @Benchmark
+    public int coldStartup() throws Exception
+    {
+        BtMary.startup();
+        return BtMary.currentState();
+    }
+}
@@ -0,0 +1,234 @@
+package bt.speech.tts;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+
+import marytts.modules.synthesis.Voice;
+import marytts.util.MaryUtils;
+
+/**
+ * Admits syntheses only while their estimated memory fits above the low memory threshold of the mary.lowmemory
+ * property.
+ *
+ * <p>The memory of a synthesis is estimated from the length of its text and the sample rate of its voice. Admitted
+ * estimates are reserved until the synthesis completes, and all reservations together must fit into the maximum heap.
+ * The memory that is currently available must fit the new estimate as well; reservations are not subtracted from it,
+ * since it already reflects what the running syntheses have allocated. A synthesis that would cross the threshold
+ * waits for running ones to complete, up to {@link #setMaxWait(long, TimeUnit) the maximum wait}, and is then rejected
+ * with an {@link AdmissionRejectedException}. It is rejected right away under a
+ * {@link BtMaryRuntimeUtils#veryLowMemoryCondition() very low memory condition}. If nothing else is running a
+ * synthesis is always admitted, so that large texts can't stall forever.</p>
+ *
+ * @author &#8904
+ */
+public class AdmissionController
+{
+    /** The estimated memory of a synthesis regardless of its text. */
+    public static final long BASE_ESTIMATE = 2L * 1024 * 1024;
+
+    /** The estimated memory of the intermediate processing data per character. */
+    public static final long PROCESSING_BYTES_PER_CHAR = 4096;
+
+    /** The estimated duration of speech per character in seconds. */
+    public static final double SECONDS_PER_CHAR = 0.08;
+
+    private volatile boolean enabled = true;
+    private volatile long maxWaitNanos = TimeUnit.SECONDS.toNanos(5);
+    private long reservedBytes;
+    private int running;
+    private int waiting;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return this.enabled;
+    }
+
+    /**
+     * @param maxWait How long a synthesis may wait for memory before it is rejected. 0 rejects right away.
+     * @param unit
+     */
+    public void setMaxWait(long maxWait, TimeUnit unit)
+    {
+        this.maxWaitNanos = unit.toNanos(maxWait);
+    }
+
+    /**
+     * @param text
+     * @param options
+     * @return The estimated memory of synthesizing the given text in bytes.
+     */
+    public static long estimate(String text, SynthesisOptions options)
+    {
+        float sampleRate = 16000;
+        int frameSize = 2;
+        Voice voice = options.getVoice() == null ? null : Voice.getVoice(options.getVoice());
+
+        if (voice != null)
+        {
+            AudioFormat format = voice.dbAudioFormat();
+            sampleRate = format.getSampleRate();
+            frameSize = Math.max(1, format.getFrameSize());
+        }
+
+        long audioBytesPerChar = (long)(sampleRate * frameSize * SECONDS_PER_CHAR);
+        return BASE_ESTIMATE + text.length() * (audioBytesPerChar + PROCESSING_BYTES_PER_CHAR);
+    }
+
+    /**
+     * Waits until the given synthesis can be admitted and reserves its estimated memory.
+     *
+     * @param text
+     * @param options
+     * @return The permit that has to be closed once the synthesis has completed.
+     * @throws AdmissionRejectedException If the synthesis does not fit in time.
+     */
+    public Permit admit(String text, SynthesisOptions options) throws AdmissionRejectedException
+    {
+        if (!this.enabled)
+        {
+            return new Permit(0);
+        }
+
+        long estimate = estimate(text, options);
+
+        if (BtMaryRuntimeUtils.veryLowMemoryCondition())
+        {
+            this.rejected.incrementAndGet();
+            throw new AdmissionRejectedException("Memory is very low", estimate);
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + this.maxWaitNanos;
+
+        synchronized (this)
+        {
+            this.waiting++;
+
+            try
+            {
+                while (this.running > 0 && !fits(estimate))
+                {
+                    long remaining = deadline - System.nanoTime();
+
+                    if (remaining <= 0)
+                    {
+                        this.rejected.incrementAndGet();
+                        throw new AdmissionRejectedException("Not enough memory for an estimated " + estimate + " bytes", estimate);
+                    }
+
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                this.rejected.incrementAndGet();
+                throw new AdmissionRejectedException("Interrupted while waiting for memory", estimate);
+            }
+            finally
+            {
+                this.waiting--;
+            }
+
+            this.reservedBytes += estimate;
+            this.running++;
+        }
+
+        long waited = System.nanoTime() - start;
+        this.waitTime.record(waited);
+        this.admitted.incrementAndGet();
+
+        SynthesisMetrics metrics = SynthesisMetrics.get();
+
+        if (metrics.isEnabled())
+        {
+            metrics.record(options.getVoice() == null ? "default" : options.getVoice(), "ADMISSION", waited, 0);
+        }
+        return new Permit(estimate);
+    }
+
+    private boolean fits(long estimate)
+    {
+        long threshold = BtMaryRuntimeUtils.getLowMemoryThreshold();
+        return Runtime.getRuntime().maxMemory() - this.reservedBytes - estimate >= threshold
+                && MaryUtils.availableMemory() - estimate >= threshold;
+    }
+
+    private synchronized void release(long estimate)
+    {
+        this.reservedBytes -= estimate;
+        this.running--;
+        notifyAll();
+    }
+
+    /**
+     * @return The currently reserved memory of all running syntheses.
+     */
+    public synchronized long getReservedBytes()
+    {
+        return this.reservedBytes;
+    }
+
+    /**
+     * @return The number of syntheses that are waiting for admission.
+     */
+    public synchronized int getWaitingCount()
+    {
+        return this.waiting;
+    }
+
+    public long getAdmittedCount()
+    {
+        return this.admitted.get();
+    }
+
+    public long getRejectedCount()
+    {
+        return this.rejected.get();
+    }
+
+    /**
+     * @return The nanoseconds admitted syntheses waited for admission. They are also recorded as the stage
+     *         <code>ADMISSION</code> in the {@link SynthesisMetrics} while those are enabled.
+     */
+    public LatencyHistogram getWaitTime()
+    {
+        return this.waitTime;
+    }
+
+    /**
+     * Reserved memory of one admitted synthesis.
+     */
+    public class Permit implements AutoCloseable
+    {
+        private final long estimate;
+        private boolean released;
+
+        private Permit(long estimate)
+        {
+            this.estimate = estimate;
+            this.released = estimate == 0;
+        }
+
+        @Override
+        public void close()
+        {
+            if (!this.released)
+            {
+                this.released = true;
+                release(this.estimate);
+            }
+        }
+    }
+}
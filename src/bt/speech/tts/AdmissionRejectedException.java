@@ -0,0 +1,29 @@
+package bt.speech.tts;
+
+import marytts.exceptions.SynthesisException;
+
+/**
+ * Thrown if a synthesis is not admitted because it would push the memory usage below the configured low memory
+ * threshold.
+ *
+ * @author &#8904
+ * @see AdmissionController
+ */
+public class AdmissionRejectedException extends SynthesisException
+{
+    private final long estimatedBytes;
+
+    public AdmissionRejectedException(String message, long estimatedBytes)
+    {
+        super(message);
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    /**
+     * @return The estimated memory of the rejected synthesis.
+     */
+    public long getEstimatedBytes()
+    {
+        return this.estimatedBytes;
+    }
+}
@@ -0,0 +1,25 @@
+package bt.speech.tts;
+
+/**
+ * Size bounded in-memory cache of synthesized audio.
+ *
+ * <p>Entries are evicted in least recently used order as soon as the total size of the cached samples exceeds the
+ * configured byte budget. Results that are larger than the whole budget are not cached at all.</p>
+ *
+ * @author &#8904
+ */
+public class AudioCache extends BoundedLruCache<AudioCacheKey, PcmAudio>
+{
+    /**
+     * @param maxBytes The maximum number of bytes that the cached audio may occupy. 0 disables the cache.
+     */
+    public AudioCache(long maxBytes)
+    {
+        super(maxBytes, AudioCache::sizeOf);
+    }
+
+    private static long sizeOf(AudioCacheKey key, PcmAudio audio)
+    {
+        return (long)key.estimatedSize() + audio.size();
+    }
+}
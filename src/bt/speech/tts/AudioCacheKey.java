@@ -0,0 +1,91 @@
+package bt.speech.tts;
+
+import java.util.Objects;
+
+/**
+ * Identifies one synthesis result by everything that influences the produced audio.
+ *
+ * @author &#8904
+ */
+public final class AudioCacheKey
+{
+    private final String text;
+    private final String voice;
+    private final String effects;
+    private final String style;
+    private final int hash;
+
+    public AudioCacheKey(String text, String voice, String effects, String style)
+    {
+        this.text = Objects.requireNonNull(text);
+        this.voice = voice;
+        this.effects = effects;
+        this.style = style;
+        this.hash = Objects.hash(text, voice, effects, style);
+    }
+
+    public String getText()
+    {
+        return this.text;
+    }
+
+    public String getVoice()
+    {
+        return this.voice;
+    }
+
+    public String getEffects()
+    {
+        return this.effects;
+    }
+
+    public String getStyle()
+    {
+        return this.style;
+    }
+
+    /**
+     * @return A rough estimate of the heap used by this key.
+     */
+    public int estimatedSize()
+    {
+        return 64 + 2 * (this.text.length()
+                + (this.voice == null ? 0 : this.voice.length())
+                + (this.effects == null ? 0 : this.effects.length())
+                + (this.style == null ? 0 : this.style.length()));
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+
+        if (!(o instanceof AudioCacheKey))
+        {
+            return false;
+        }
+
+        AudioCacheKey other = (AudioCacheKey)o;
+
+        return this.hash == other.hash
+                && this.text.equals(other.text)
+                && Objects.equals(this.voice, other.voice)
+                && Objects.equals(this.effects, other.effects)
+                && Objects.equals(this.style, other.style);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return this.hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AudioCacheKey[voice=" + this.voice + ", effects=" + this.effects + ", style=" + this.style + ", text=" + this.text + "]";
+    }
+}
@@ -0,0 +1,230 @@
+package bt.speech.tts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * Encodes synthesized PCM into audio files, i.e. MP3 or Ogg Vorbis, on its own threads.
+ *
+ * <p>Compressed encoding is slow compared to synthesis. Handing it off to this stage frees the synthesis worker as
+ * soon as the PCM is available. Queue depth, queue wait and encode time are recorded separately from the synthesis
+ * time.</p>
+ *
+ * @author &#8904
+ */
+public class AudioEncodingStage
+{
+    private static volatile AudioEncodingStage defaultInstance;
+
+    private final ThreadPoolExecutor executor;
+    private final LatencyHistogram queueWaitTime = new LatencyHistogram();
+    private final LatencyHistogram encodeTime = new LatencyHistogram();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param threads       The number of encoder threads.
+     * @param queueCapacity The maximum number of encodings waiting for a thread.
+     */
+    public AudioEncodingStage(int threads, int queueCapacity)
+    {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads,
+                                               60, TimeUnit.SECONDS,
+                                               new ArrayBlockingQueue<>(queueCapacity),
+                                               r ->
+                                               {
+                                                   Thread thread = new Thread(r, "TextToSpeech-encoder-" + count.incrementAndGet());
+                                                   thread.setDaemon(true);
+                                                   return thread;
+                                               });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return The stage shared by {@link TextToSpeech} and {@link BtMary}, with one thread per two processors.
+     */
+    public static AudioEncodingStage getDefault()
+    {
+        if (defaultInstance == null)
+        {
+            synchronized (AudioEncodingStage.class)
+            {
+                if (defaultInstance == null)
+                {
+                    defaultInstance = new AudioEncodingStage(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 1024);
+                }
+            }
+        }
+
+        return defaultInstance;
+    }
+
+    /**
+     * Queues the given audio for encoding.
+     *
+     * @param audio
+     * @param type  The file type, i.e. from {@link marytts.util.data.audio.MaryAudioUtils#getAudioFileFormatType(String)}.
+     * @return A future with the complete encoded file. It fails with a {@link RejectedExecutionException} if the
+     *         queue is full.
+     */
+    public CompletableFuture<byte[]> encode(PcmAudio audio, AudioFileFormat.Type type)
+    {
+        return submit(() ->
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(1024, audio.size() / 4));
+            encodeNow(audio.toAudioInputStream(), type, out);
+            return out.toByteArray();
+        }, null);
+    }
+
+    /**
+     * Queues the given audio for encoding straight into the given stream, without collecting the encoded file in
+     * memory first.
+     *
+     * @param audio The stream is read and closed on an encoder thread, or closed right away if the queue is full, and
+     *              must not be used by the caller anymore.
+     * @param type
+     * @param out   The stream is written and flushed on an encoder thread, so the caller must not use it until the
+     *              returned future completes.
+     * @return A future that completes once the encoded file was written. It fails with a
+     *         {@link RejectedExecutionException} if the queue is full.
+     */
+    public CompletableFuture<Void> encode(AudioInputStream audio, AudioFileFormat.Type type, OutputStream out)
+    {
+        return submit(() ->
+        {
+            try (audio)
+            {
+                encodeNow(audio, type, out);
+            }
+
+            out.flush();
+            return null;
+        }, audio);
+    }
+
+    /**
+     * @param encoding
+     * @param input    The input of the encoding, closed if the encoding is rejected. May be null.
+     */
+    private <T> CompletableFuture<T> submit(Encoding<T> encoding, Closeable input)
+    {
+        long submitted = System.nanoTime();
+
+        try
+        {
+            return CompletableFuture.supplyAsync(() ->
+            {
+                long start = System.nanoTime();
+                this.queueWaitTime.record(start - submitted);
+
+                try
+                {
+                    return encoding.run();
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    this.failed.incrementAndGet();
+                    throw new CompletionException(e);
+                }
+                finally
+                {
+                    this.encodeTime.record(System.nanoTime() - start);
+                }
+            }, this.executor);
+        }
+        catch (RejectedExecutionException e)
+        {
+            this.rejected.incrementAndGet();
+
+            if (input != null)
+            {
+                try
+                {
+                    input.close();
+                }
+                catch (IOException closeFailure)
+                {
+                    e.addSuppressed(closeFailure);
+                }
+            }
+
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static void encodeNow(AudioInputStream pcm, AudioFileFormat.Type type, OutputStream out) throws IOException
+    {
+        AudioInputStream encoded = pcm;
+        String typeName = type.toString();
+
+        if (typeName.equals("MP3") || typeName.equals("Vorbis"))
+        {
+            AudioFormat targetFormat = typeName.equals("MP3") ? BtMaryRuntimeUtils.getMP3AudioFormat() : BtMaryRuntimeUtils.getOggAudioFormat();
+            encoded = AudioSystem.getAudioInputStream(targetFormat, pcm);
+        }
+
+        AudioSystem.write(encoded, type, out);
+    }
+
+    /**
+     * @return The number of encodings waiting for a thread.
+     */
+    public int getQueueDepth()
+    {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * @return The nanoseconds encodings waited in the queue.
+     */
+    public LatencyHistogram getQueueWaitTime()
+    {
+        return this.queueWaitTime;
+    }
+
+    /**
+     * @return The nanoseconds the encodings themselves took.
+     */
+    public LatencyHistogram getEncodeTime()
+    {
+        return this.encodeTime;
+    }
+
+    public long getFailedCount()
+    {
+        return this.failed.get();
+    }
+
+    public long getRejectedCount()
+    {
+        return this.rejected.get();
+    }
+
+    public void shutdown()
+    {
+        this.executor.shutdown();
+    }
+
+    @FunctionalInterface
+    private interface Encoding<T>
+    {
+        T run() throws IOException;
+    }
+}
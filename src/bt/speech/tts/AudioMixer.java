@@ -0,0 +1,658 @@
+package bt.speech.tts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Mixes any number of concurrently playing streams into a single output that stays open.
+ *
+ * <p>The streams are mixed in frames of a fixed duration on a dedicated thread, each with its own gain, and written to
+ * a {@link Sink}. The sink is opened with the format of the first stream when it is first needed and is kept open
+ * afterwards, so that consecutive utterances don't pay for opening a new line. Later streams are converted to that
+ * format if they differ, including their sample rate and channel count. If the sink fails, only the streams that are
+ * playing at that time fail; the next stream opens the sink again.</p>
+ *
+ * <p>Streams are read on the mixing thread, so they should not block for long, i.e. they should be backed by
+ * already synthesized audio.</p>
+ *
+ * @author &#8904
+ */
+public class AudioMixer
+{
+    /** The default duration of one mixed frame. */
+    public static final int DEFAULT_FRAME_MILLIS = 20;
+
+    private final Sink sink;
+    private final int frameMillis;
+    private final List<Track> tracks = new ArrayList<>();
+    private AudioFormat format;
+    private Thread thread;
+    private boolean closed;
+
+    private final AtomicLong mixedFrames = new AtomicLong();
+    private final AtomicLong playedTracks = new AtomicLong();
+
+    /**
+     * @param sink        The output that receives the mixed frames.
+     * @param frameMillis The duration of one mixed frame.
+     */
+    public AudioMixer(Sink sink, int frameMillis)
+    {
+        this.sink = sink;
+        this.frameMillis = frameMillis;
+    }
+
+    public AudioMixer(Sink sink)
+    {
+        this(sink, DEFAULT_FRAME_MILLIS);
+    }
+
+    /**
+     * Starts mixing the given stream into the output.
+     *
+     * @param audio
+     * @param gain  Linear factor for the samples of this stream.
+     * @return The handle of the stream.
+     * @throws IllegalArgumentException If the stream can't be converted to 16 bit signed PCM.
+     * @throws IllegalStateException    If the mixer was closed.
+     */
+    public Track play(AudioInputStream audio, float gain)
+    {
+        synchronized (this)
+        {
+            if (this.closed)
+            {
+                throw new IllegalStateException("Mixer is closed");
+            }
+
+            if (this.format == null)
+            {
+                this.format = audio.getFormat();
+
+                if (!AudioFormat.Encoding.PCM_SIGNED.equals(this.format.getEncoding()) || this.format.getSampleSizeInBits() != 16)
+                {
+                    this.format = new AudioFormat(this.format.getSampleRate(), 16, this.format.getChannels(), true, false);
+                }
+            }
+
+            AudioFormat source = audio.getFormat();
+            AudioFormat pcm = new AudioFormat(source.getSampleRate(), 16, source.getChannels(), true, this.format.isBigEndian());
+
+            if (!source.matches(pcm))
+            {
+                audio = AudioSystem.getAudioInputStream(pcm, audio);
+            }
+
+            // the sample rate converters of Java Sound are unreliable, so different rates are resampled here
+            if (pcm.getSampleRate() != this.format.getSampleRate() || pcm.getChannels() != this.format.getChannels())
+            {
+                audio = new AudioInputStream(new ResamplingStream(audio, this.format), this.format, AudioSystem.NOT_SPECIFIED);
+            }
+
+            Track track = new Track(audio, gain);
+            this.tracks.add(track);
+
+            if (this.thread == null)
+            {
+                this.thread = new Thread(this::run, "TextToSpeech-mixer");
+                this.thread.setDaemon(true);
+                this.thread.start();
+            }
+
+            notifyAll();
+            return track;
+        }
+    }
+
+    /**
+     * @return The format of the mixed output or null if nothing has been played yet.
+     */
+    public synchronized AudioFormat getFormat()
+    {
+        return this.format;
+    }
+
+    /**
+     * @return The number of streams that are currently being mixed.
+     */
+    public synchronized int getActiveTrackCount()
+    {
+        return this.tracks.size();
+    }
+
+    public long getMixedFrameCount()
+    {
+        return this.mixedFrames.get();
+    }
+
+    public long getPlayedTrackCount()
+    {
+        return this.playedTracks.get();
+    }
+
+    /**
+     * Stops all streams and closes the sink.
+     */
+    public void close()
+    {
+        Thread mixingThread;
+
+        synchronized (this)
+        {
+            this.closed = true;
+
+            for (Track track : this.tracks)
+            {
+                track.stop();
+            }
+
+            mixingThread = this.thread;
+            notifyAll();
+        }
+
+        if (mixingThread == null)
+        {
+            this.sink.close();
+        }
+    }
+
+    private void run()
+    {
+        AudioFormat mixFormat;
+
+        synchronized (this)
+        {
+            mixFormat = this.format;
+        }
+
+        int frameSize = mixFormat.getFrameSize();
+        int frameBytes = Math.max(1, (int)(mixFormat.getFrameRate() * this.frameMillis / 1000)) * frameSize;
+        byte[] buffer = new byte[frameBytes];
+        byte[] output = new byte[frameBytes];
+        int[] mix = new int[frameBytes / 2];
+        List<Track> active = new ArrayList<>();
+        List<Track> ended = new ArrayList<>();
+
+        try
+        {
+            this.sink.open(mixFormat, frameBytes);
+
+            while (true)
+            {
+                synchronized (this)
+                {
+                    while (this.tracks.isEmpty() && !this.closed)
+                    {
+                        wait();
+                    }
+
+                    if (this.closed)
+                    {
+                        this.tracks.clear();
+                        break;
+                    }
+
+                    active.clear();
+                    active.addAll(this.tracks);
+                }
+
+                Arrays.fill(mix, 0);
+                int mixedBytes = 0;
+
+                for (Track track : active)
+                {
+                    int read;
+
+                    try
+                    {
+                        read = track.stopped ? 0 : track.read(buffer);
+                    }
+                    catch (IOException e)
+                    {
+                        finish(track, e);
+                        continue;
+                    }
+
+                    float gain = track.gain;
+                    boolean bigEndian = mixFormat.isBigEndian();
+
+                    for (int i = 0; i + 1 < read; i += 2)
+                    {
+                        int sample = bigEndian ? (short)((buffer[i] << 8) | (buffer[i + 1] & 0xFF))
+                                               : (short)((buffer[i + 1] << 8) | (buffer[i] & 0xFF));
+                        mix[i / 2] += Math.round(sample * gain);
+                    }
+
+                    mixedBytes = Math.max(mixedBytes, read - read % frameSize);
+
+                    if (read < frameBytes)
+                    {
+                        // completed once its last frame was written
+                        end(track);
+                        ended.add(track);
+                    }
+                }
+
+                if (mixedBytes > 0)
+                {
+                    boolean bigEndian = mixFormat.isBigEndian();
+
+                    for (int i = 0; i < mixedBytes / 2; i++)
+                    {
+                        int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+                        output[bigEndian ? i * 2 : i * 2 + 1] = (byte)(sample >> 8);
+                        output[bigEndian ? i * 2 + 1 : i * 2] = (byte)sample;
+                    }
+
+                    this.sink.write(output, 0, mixedBytes);
+                    this.mixedFrames.incrementAndGet();
+                }
+
+                if (!ended.isEmpty())
+                {
+                    boolean idle;
+
+                    synchronized (this)
+                    {
+                        idle = this.tracks.isEmpty();
+                    }
+
+                    // the sink still buffers the last frames, they have to be audible before the tracks count as played
+                    if (idle && ended.stream().anyMatch(track -> !track.stopped))
+                    {
+                        this.sink.drain();
+                    }
+
+                    for (Track track : ended)
+                    {
+                        complete(track, null);
+                    }
+
+                    ended.clear();
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            closeSink();
+
+            // only the streams that are playing fail, the next one starts a new thread that opens the sink again
+            synchronized (this)
+            {
+                active.clear();
+                active.addAll(ended);
+                active.addAll(this.tracks);
+                this.tracks.clear();
+                this.thread = null;
+                this.format = null;
+            }
+
+            for (Track track : active)
+            {
+                finish(track, e);
+            }
+
+            return;
+        }
+
+        closeSink();
+    }
+
+    private void closeSink()
+    {
+        try
+        {
+            this.sink.close();
+        }
+        catch (RuntimeException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    private void finish(Track track, Exception e)
+    {
+        end(track);
+        complete(track, e);
+    }
+
+    /**
+     * Stops mixing the given track without completing it.
+     */
+    private void end(Track track)
+    {
+        synchronized (this)
+        {
+            this.tracks.remove(track);
+        }
+
+        try
+        {
+            track.audio.close();
+        }
+        catch (IOException ignored)
+        {
+        }
+    }
+
+    private void complete(Track track, Exception e)
+    {
+        if (e == null)
+        {
+            this.playedTracks.incrementAndGet();
+            track.completion.complete(null);
+        }
+        else
+        {
+            track.completion.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return A sink that plays the mixed audio on the default output line of the system.
+     */
+    public static Sink lineSink()
+    {
+        return new Sink()
+        {
+            private SourceDataLine line;
+
+            @Override
+            public void open(AudioFormat format, int frameBytes) throws LineUnavailableException
+            {
+                this.line = AudioSystem.getSourceDataLine(format);
+                this.line.open(format, frameBytes * 8);
+                this.line.start();
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length)
+            {
+                this.line.write(data, offset, length);
+            }
+
+            @Override
+            public void drain()
+            {
+                this.line.drain();
+            }
+
+            @Override
+            public void close()
+            {
+                if (this.line != null)
+                {
+                    this.line.drain();
+                    this.line.close();
+                    this.line = null;
+                }
+            }
+        };
+    }
+
+    /**
+     * @return A sink that discards the mixed audio.
+     */
+    public static Sink nullSink()
+    {
+        return new Sink()
+        {
+            @Override
+            public void open(AudioFormat format, int frameBytes)
+            {
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length)
+            {
+            }
+        };
+    }
+
+    /**
+     * The output of a mixer. All methods are called on the mixing thread.
+     */
+    public interface Sink
+    {
+        /**
+         * Called once before the first frame is written.
+         *
+         * @param format
+         * @param frameBytes The maximum size of one written frame.
+         * @throws Exception
+         */
+        void open(AudioFormat format, int frameBytes) throws Exception;
+
+        /**
+         * Writes one mixed frame. Blocking here paces the mixer.
+         *
+         * @param data
+         * @param offset
+         * @param length
+         */
+        void write(byte[] data, int offset, int length);
+
+        /**
+         * Blocks until the written frames have been played. Called once no stream is left to mix.
+         */
+        default void drain()
+        {
+        }
+
+        default void close()
+        {
+        }
+    }
+
+    /**
+     * A sink that collects the mixed audio in memory, i.e. to test playback without an audio device.
+     */
+    public static class MemorySink implements Sink
+    {
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private volatile AudioFormat format;
+
+        @Override
+        public void open(AudioFormat format, int frameBytes)
+        {
+            this.format = format;
+        }
+
+        @Override
+        public synchronized void write(byte[] data, int offset, int length)
+        {
+            this.data.write(data, offset, length);
+        }
+
+        /**
+         * @return Everything that has been mixed so far.
+         */
+        public synchronized PcmAudio getAudio()
+        {
+            return new PcmAudio(this.format, ByteBuffer.wrap(this.data.toByteArray()));
+        }
+    }
+
+    /**
+     * Converts 16 bit signed PCM to another sample rate and channel count by linear interpolation. Missing channels
+     * repeat the last channel of the source, surplus channels are dropped.
+     */
+    private static final class ResamplingStream extends InputStream
+    {
+        private final AudioInputStream source;
+        private final boolean bigEndian;
+        private final int sourceChannels;
+        private final int targetChannels;
+        private final double step;
+        private final byte[] sourceFrame;
+        private final byte[] targetFrame;
+        private int targetPosition;
+        private short[] current;
+        private short[] next;
+        private double fraction;
+
+        private ResamplingStream(AudioInputStream source, AudioFormat target)
+        {
+            this.source = source;
+            this.bigEndian = target.isBigEndian();
+            this.sourceChannels = source.getFormat().getChannels();
+            this.targetChannels = target.getChannels();
+            this.step = source.getFormat().getSampleRate() / target.getSampleRate();
+            this.sourceFrame = new byte[this.sourceChannels * 2];
+            this.targetFrame = new byte[this.targetChannels * 2];
+            this.targetPosition = this.targetFrame.length;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int read = 0;
+
+            while (read < len)
+            {
+                if (this.targetPosition == this.targetFrame.length && !nextFrame())
+                {
+                    break;
+                }
+
+                int n = Math.min(len - read, this.targetFrame.length - this.targetPosition);
+                System.arraycopy(this.targetFrame, this.targetPosition, b, off + read, n);
+                this.targetPosition += n;
+                read += n;
+            }
+
+            return read == 0 && len > 0 ? -1 : read;
+        }
+
+        private boolean nextFrame() throws IOException
+        {
+            if (this.current == null)
+            {
+                this.current = readFrame();
+                this.next = readFrame();
+            }
+
+            while (this.fraction >= 1 && this.current != null)
+            {
+                this.current = this.next;
+                this.next = readFrame();
+                this.fraction -= 1;
+            }
+
+            if (this.current == null)
+            {
+                return false;
+            }
+
+            short[] following = this.next == null ? this.current : this.next;
+
+            for (int c = 0; c < this.targetChannels; c++)
+            {
+                int channel = Math.min(c, this.sourceChannels - 1);
+                int sample = (int)Math.round(this.current[channel] + (following[channel] - this.current[channel]) * this.fraction);
+                this.targetFrame[this.bigEndian ? c * 2 : c * 2 + 1] = (byte)(sample >> 8);
+                this.targetFrame[this.bigEndian ? c * 2 + 1 : c * 2] = (byte)sample;
+            }
+
+            this.fraction += this.step;
+            this.targetPosition = 0;
+            return true;
+        }
+
+        private short[] readFrame() throws IOException
+        {
+            if (this.source.readNBytes(this.sourceFrame, 0, this.sourceFrame.length) < this.sourceFrame.length)
+            {
+                return null;
+            }
+
+            short[] frame = new short[this.sourceChannels];
+
+            for (int c = 0; c < frame.length; c++)
+            {
+                frame[c] = this.bigEndian ? (short)((this.sourceFrame[c * 2] << 8) | (this.sourceFrame[c * 2 + 1] & 0xFF))
+                                          : (short)((this.sourceFrame[c * 2 + 1] << 8) | (this.sourceFrame[c * 2] & 0xFF));
+            }
+
+            return frame;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.source.close();
+        }
+    }
+
+    /**
+     * The handle of one stream that is being mixed.
+     */
+    public static class Track
+    {
+        private final AudioInputStream audio;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private volatile float gain;
+        private volatile boolean stopped;
+
+        private Track(AudioInputStream audio, float gain)
+        {
+            this.audio = audio;
+            this.gain = gain;
+        }
+
+        private int read(byte[] buffer) throws IOException
+        {
+            return this.audio.readNBytes(buffer, 0, buffer.length);
+        }
+
+        /**
+         * @param gain Linear factor for the samples of this stream, taking effect with the next frame.
+         */
+        public void setGain(float gain)
+        {
+            this.gain = gain;
+        }
+
+        public float getGain()
+        {
+            return this.gain;
+        }
+
+        /**
+         * Stops the stream with the next frame. Its completion future completes normally.
+         */
+        public void stop()
+        {
+            this.stopped = true;
+        }
+
+        /**
+         * @return A future that completes once the last frame of this stream was written to the sink, and also
+         *         played if no other stream is left to mix, or once the stream was stopped.
+         */
+        public CompletableFuture<Void> getCompletion()
+        {
+            return this.completion;
+        }
+    }
+}
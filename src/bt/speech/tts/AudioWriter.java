@@ -0,0 +1,207 @@
+package bt.speech.tts;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * Writes PCM audio as WAV or raw samples directly to NIO channels and buffers.
+ *
+ * <p>Audio that is already available as {@link PcmAudio} is written straight from its shared buffer, together with
+ * a header that is computed up front, so no intermediate copies are made. Streams of unknown length are written to
+ * a {@link FileChannel} with a placeholder header, which is patched once the length is known.</p>
+ *
+ * @author &#8904
+ */
+public final class AudioWriter
+{
+    /** The size of a canonical WAV header. */
+    public static final int WAV_HEADER_SIZE = 44;
+
+    private AudioWriter()
+    {
+    }
+
+    /**
+     * Creates a canonical 44 byte WAV header.
+     *
+     * @param format     Must be little endian PCM, or have 8 bit samples.
+     * @param dataLength The number of sample bytes that follow the header.
+     * @return The header, positioned at 0.
+     */
+    public static ByteBuffer wavHeader(AudioFormat format, long dataLength)
+    {
+        int formatTag;
+
+        if (AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) || AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding()))
+        {
+            formatTag = 1;
+        }
+        else if (AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding()))
+        {
+            formatTag = 3;
+        }
+        else
+        {
+            throw new IllegalArgumentException("WAV output requires PCM audio, not " + format.getEncoding());
+        }
+
+        if (format.isBigEndian() && format.getSampleSizeInBits() > 8)
+        {
+            throw new IllegalArgumentException("WAV output requires little endian samples");
+        }
+
+        if (dataLength > 0xFFFFFFFFL - 36)
+        {
+            throw new IllegalArgumentException("Audio is too large for a WAV file: " + dataLength + " bytes");
+        }
+
+        int channels = format.getChannels();
+        int sampleRate = (int)format.getSampleRate();
+        int blockAlign = format.getFrameSize();
+
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] { 'R', 'I', 'F', 'F' });
+        header.putInt((int)(36 + dataLength));
+        header.put(new byte[] { 'W', 'A', 'V', 'E', 'f', 'm', 't', ' ' });
+        header.putInt(16);
+        header.putShort((short)formatTag);
+        header.putShort((short)channels);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign);
+        header.putShort((short)blockAlign);
+        header.putShort((short)format.getSampleSizeInBits());
+        header.put(new byte[] { 'd', 'a', 't', 'a' });
+        header.putInt((int)dataLength);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Writes the audio as a WAV file to the channel.
+     *
+     * @param audio
+     * @param channel
+     * @return The number of written bytes.
+     * @throws IOException
+     */
+    public static long writeWav(PcmAudio audio, WritableByteChannel channel) throws IOException
+    {
+        return write(channel, wavHeader(audio.getFormat(), audio.size()), audio.getData());
+    }
+
+    /**
+     * Writes the raw samples of the audio to the channel.
+     *
+     * @param audio
+     * @param channel
+     * @return The number of written bytes.
+     * @throws IOException
+     */
+    public static long writePcm(PcmAudio audio, WritableByteChannel channel) throws IOException
+    {
+        return write(channel, audio.getData());
+    }
+
+    /**
+     * Puts the audio as a WAV file into the buffer, starting at its position.
+     *
+     * @param audio
+     * @param target
+     * @throws java.nio.BufferOverflowException If the buffer does not have enough space remaining.
+     */
+    public static void writeWav(PcmAudio audio, ByteBuffer target)
+    {
+        target.put(wavHeader(audio.getFormat(), audio.size()));
+        target.put(audio.getData());
+    }
+
+    /**
+     * Puts the raw samples of the audio into the buffer, starting at its position.
+     *
+     * @param audio
+     * @param target
+     * @throws java.nio.BufferOverflowException If the buffer does not have enough space remaining.
+     */
+    public static void writePcm(PcmAudio audio, ByteBuffer target)
+    {
+        target.put(audio.getData());
+    }
+
+    /**
+     * Writes a stream of possibly unknown length as a WAV file to the channel, starting at its current position. The
+     * header is patched after all samples have been written.
+     *
+     * @param audio
+     * @param channel
+     * @return The number of written bytes.
+     * @throws IOException
+     */
+    public static long writeWav(AudioInputStream audio, FileChannel channel) throws IOException
+    {
+        long start = channel.position();
+        write(channel, wavHeader(audio.getFormat(), 0));
+
+        long dataLength = 0;
+        ReadableByteChannel source = Channels.newChannel(audio);
+
+        for (long transferred = channel.transferFrom(source, start + WAV_HEADER_SIZE, 1 << 20);
+             transferred > 0;
+             transferred = channel.transferFrom(source, start + WAV_HEADER_SIZE + dataLength, 1 << 20))
+        {
+            dataLength += transferred;
+        }
+
+        ByteBuffer header = wavHeader(audio.getFormat(), dataLength);
+
+        while (header.hasRemaining())
+        {
+            channel.write(header, start + header.position());
+        }
+
+        channel.position(start + WAV_HEADER_SIZE + dataLength);
+        return WAV_HEADER_SIZE + dataLength;
+    }
+
+    private static long write(WritableByteChannel channel, ByteBuffer... buffers) throws IOException
+    {
+        long written = 0;
+
+        if (channel instanceof GatheringByteChannel)
+        {
+            GatheringByteChannel gathering = (GatheringByteChannel)channel;
+            long total = 0;
+
+            // the last buffer may be empty, i.e. the samples of empty audio, so count what is left over all of them
+            for (ByteBuffer buffer : buffers)
+            {
+                total += buffer.remaining();
+            }
+
+            while (written < total)
+            {
+                written += gathering.write(buffers);
+            }
+        }
+        else
+        {
+            for (ByteBuffer buffer : buffers)
+            {
+                while (buffer.hasRemaining())
+                {
+                    written += channel.write(buffer);
+                }
+            }
+        }
+
+        return written;
+    }
+}
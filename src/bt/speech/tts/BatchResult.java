@@ -0,0 +1,72 @@
+package bt.speech.tts;
+
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * Outcome of synthesizing one item of a batch, either the audio or the error that occurred.
+ *
+ * @author &#8904
+ */
+public final class BatchResult
+{
+    private final int index;
+    private final String text;
+    private final PcmAudio audio;
+    private final Throwable error;
+
+    BatchResult(int index, String text, PcmAudio audio, Throwable error)
+    {
+        this.index = index;
+        this.text = text;
+        this.audio = audio;
+        this.error = error;
+    }
+
+    /**
+     * @return The position of the item in the batch.
+     */
+    public int getIndex()
+    {
+        return this.index;
+    }
+
+    public String getText()
+    {
+        return this.text;
+    }
+
+    public boolean isSuccess()
+    {
+        return this.error == null;
+    }
+
+    /**
+     * @return The synthesized audio or null if the synthesis failed.
+     */
+    public PcmAudio getAudio()
+    {
+        return this.audio;
+    }
+
+    /**
+     * @return A new stream over the synthesized audio or null if the synthesis failed.
+     */
+    public AudioInputStream getAudioInputStream()
+    {
+        return this.audio == null ? null : this.audio.toAudioInputStream();
+    }
+
+    /**
+     * @return The reason why the synthesis failed or null if it succeeded.
+     */
+    public Throwable getError()
+    {
+        return this.error;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BatchResult[index=" + this.index + ", " + (isSuccess() ? this.audio.size() + " bytes" : "error=" + this.error) + "]";
+    }
+}
@@ -0,0 +1,169 @@
+package bt.speech.tts;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Size bounded in-memory cache that evicts in least recently used order.
+ *
+ * <p>Every entry is accounted with the size its sizer estimates. Entries are evicted as soon as the total exceeds the
+ * configured byte budget, and entries that are larger than the whole budget are not cached at all.</p>
+ *
+ * @param <K>
+ * @param <V>
+ * @author &#8904
+ */
+public class BoundedLruCache<K, V>
+{
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final ToLongBiFunction<? super K, ? super V> sizer;
+    private long maxBytes;
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxBytes The maximum number of bytes that the cached entries may occupy. 0 disables the cache.
+     * @param sizer    Estimates the bytes of an entry.
+     */
+    public BoundedLruCache(long maxBytes, ToLongBiFunction<? super K, ? super V> sizer)
+    {
+        if (maxBytes < 0)
+        {
+            throw new IllegalArgumentException("maxBytes must not be negative");
+        }
+
+        this.maxBytes = maxBytes;
+        this.sizer = sizer;
+    }
+
+    /**
+     * @param key
+     * @return The cached value or null if there is none.
+     */
+    public V get(K key)
+    {
+        V value;
+
+        synchronized (this)
+        {
+            value = this.entries.get(key);
+        }
+
+        if (value == null)
+        {
+            this.misses.incrementAndGet();
+        }
+        else
+        {
+            this.hits.incrementAndGet();
+        }
+
+        return value;
+    }
+
+    public void put(K key, V value)
+    {
+        long size = this.sizer.applyAsLong(key, value);
+
+        synchronized (this)
+        {
+            if (size > this.maxBytes)
+            {
+                return;
+            }
+
+            V old = this.entries.put(key, value);
+
+            if (old != null)
+            {
+                this.currentBytes -= this.sizer.applyAsLong(key, old);
+            }
+
+            this.currentBytes += size;
+            evict();
+        }
+    }
+
+    /**
+     * Changes the byte budget, evicting entries if the new budget is smaller than the current size.
+     *
+     * @param maxBytes
+     */
+    public synchronized void setMaxBytes(long maxBytes)
+    {
+        if (maxBytes < 0)
+        {
+            throw new IllegalArgumentException("maxBytes must not be negative");
+        }
+
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public synchronized long getMaxBytes()
+    {
+        return this.maxBytes;
+    }
+
+    public synchronized boolean isEnabled()
+    {
+        return this.maxBytes > 0;
+    }
+
+    public synchronized void clear()
+    {
+        this.entries.clear();
+        this.currentBytes = 0;
+    }
+
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    public synchronized long getCurrentBytes()
+    {
+        return this.currentBytes;
+    }
+
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+
+    public long getEvictions()
+    {
+        return this.evictions.get();
+    }
+
+    private void evict()
+    {
+        Iterator<Map.Entry<K, V>> it = this.entries.entrySet().iterator();
+
+        while (this.currentBytes > this.maxBytes && it.hasNext())
+        {
+            Map.Entry<K, V> eldest = it.next();
+            it.remove();
+            this.currentBytes -= this.sizer.applyAsLong(eldest.getKey(), eldest.getValue());
+            this.evictions.incrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + "[entries=" + size() + ", bytes=" + getCurrentBytes() + "/" + getMaxBytes()
+                + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+}
@@ -7,20 +7,27 @@ import marytts.datatypes.MaryData;
 import marytts.datatypes.MaryDataType;
 import marytts.exceptions.MaryConfigurationException;
 import marytts.exceptions.SynthesisException;
+import marytts.modules.MaryModule;
+import marytts.modules.ModuleRegistry;
 import marytts.modules.synthesis.Voice;
 import marytts.server.Request;
+import marytts.util.dom.DomUtils;
 import org.w3c.dom.Document;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 
 public class BtLocalMaryInterface implements MaryInterface
 {
+    private static final IntermediateDataCache intermediateCache = new IntermediateDataCache(0L);
+
     private MaryDataType inputType;
     private MaryDataType outputType;
     private Locale locale;
@@ -41,6 +48,13 @@ public class BtLocalMaryInterface implements MaryInterface
         this.init();
     }
 
+    /**
+     * @return The cache of acoustic parameters that is shared by all instances. It is disabled until a size is set.
+     */
+    public static IntermediateDataCache getIntermediateCache() {
+        return intermediateCache;
+    }
+
     protected void init() {
         this.setReasonableDefaults();
     }
@@ -108,6 +122,7 @@ public class BtLocalMaryInterface implements MaryInterface
     }
 
     public void setVoice(String voiceName) throws IllegalArgumentException {
+        VoiceLoader.ensureLoaded(voiceName);
         this.voice = Voice.getVoice(voiceName);
         if (this.voice == null) {
             throw new IllegalArgumentException("No such voice: " + voiceName);
@@ -191,8 +206,15 @@ public class BtLocalMaryInterface implements MaryInterface
         this.verifyOutputTypeIsAudio();
         this.verifyVoiceIsAvailableForLocale();
         MaryData in = this.getMaryDataFromText(text);
-        MaryData out = this.process(in);
-        return out.getAudio();
+        MaryData out;
+
+        if (intermediateCache.isEnabled() && this.inputType.equals(MaryDataType.TEXT) && this.voice != null) {
+            out = this.processFromAcousticParameters(text, in);
+        } else {
+            out = this.process(in);
+        }
+
+        return captureAudio(out);
     }
 
     public AudioInputStream generateAudio(Document doc) throws SynthesisException {
@@ -201,7 +223,18 @@ public class BtLocalMaryInterface implements MaryInterface
         this.verifyVoiceIsAvailableForLocale();
         MaryData in = this.getMaryDataFromXML(doc);
         MaryData out = this.process(in);
-        return out.getAudio();
+        return captureAudio(out);
+    }
+
+    /**
+     * @see BtMaryRuntimeUtils#captureAudio(AudioInputStream)
+     */
+    private static AudioInputStream captureAudio(MaryData out) throws SynthesisException {
+        try {
+            return BtMaryRuntimeUtils.captureAudio(out.getAudio());
+        } catch (IOException e) {
+            throw new SynthesisException("Cannot store synthesized audio", e);
+        }
     }
 
     private void verifyOutputTypeIsXML() {
@@ -263,7 +296,45 @@ public class BtLocalMaryInterface implements MaryInterface
     }
 
     private MaryData process(MaryData in) throws SynthesisException {
-        Request r = new Request(this.inputType, this.outputType, this.locale, this.voice, this.effects, this.style, 1, this.audioFileFormat, this.isStreaming, this.outputTypeParams);
+        return this.processMeasured(in, this.inputType, this.outputType);
+    }
+
+    private MaryData processMeasured(MaryData in, MaryDataType from, MaryDataType to) throws SynthesisException {
+        if (SynthesisMetrics.get().isEnabled()) {
+            return this.processInStages(in, from, to);
+        }
+
+        return this.process(in, from, to);
+    }
+
+    /**
+     * Synthesizes the audio starting from cached acoustic parameters, so that only the waveform stage runs again if
+     * the same text is synthesized with the same voice but different effects or style.
+     */
+    private MaryData processFromAcousticParameters(String text, MaryData in) throws SynthesisException {
+        String voiceName = this.voice.getName();
+        String type = MaryDataType.ACOUSTPARAMS.name();
+        String xml = intermediateCache.get(text, this.locale, voiceName, type);
+        MaryData acoustparams;
+
+        if (xml == null) {
+            acoustparams = this.processMeasured(in, this.inputType, MaryDataType.ACOUSTPARAMS);
+            intermediateCache.put(text, this.locale, voiceName, type, DomUtils.document2String(acoustparams.getDocument()));
+        } else {
+            acoustparams = new MaryData(MaryDataType.ACOUSTPARAMS, this.locale);
+
+            try {
+                acoustparams.setData(xml);
+            } catch (Exception var4) {
+                throw new SynthesisException(var4);
+            }
+        }
+
+        return this.processMeasured(acoustparams, MaryDataType.ACOUSTPARAMS, this.outputType);
+    }
+
+    private MaryData process(MaryData in, MaryDataType from, MaryDataType to) throws SynthesisException {
+        Request r = new Request(from, to, this.locale, this.voice, this.effects, this.style, 1, this.audioFileFormat, this.isStreaming, this.outputTypeParams);
         r.setInputData(in);
 
         try {
@@ -275,6 +346,35 @@ public class BtLocalMaryInterface implements MaryInterface
         return r.getOutputData();
     }
 
+    /**
+     * Runs one request per module on the way from the given input to the given output type, recording the time and
+     * allocations of every stage in the {@link SynthesisMetrics}.
+     */
+    private MaryData processInStages(MaryData in, MaryDataType from, MaryDataType to) throws SynthesisException {
+        List<MaryModule> modules = ModuleRegistry.modulesRequiredForProcessing(from, to, this.locale, this.voice);
+
+        if (modules == null || modules.isEmpty()) {
+            return this.process(in, from, to);
+        }
+
+        SynthesisMetrics metrics = SynthesisMetrics.get();
+        String voiceName = this.voice == null ? String.valueOf(this.locale) : this.voice.getName();
+        MaryData data = in;
+        MaryDataType type = from;
+
+        for (MaryModule m : modules) {
+            long allocatedBefore = metrics.currentThreadAllocatedBytes();
+            long before = System.nanoTime();
+            data = this.process(data, type, m.outputType());
+            long nanos = System.nanoTime() - before;
+            long allocatedAfter = metrics.currentThreadAllocatedBytes();
+            type = m.outputType();
+            metrics.record(voiceName, type.name(), nanos, allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore);
+        }
+
+        return data;
+    }
+
     public Set<String> getAvailableVoices() {
         Set<String> voices = new HashSet();
         Iterator var3 = Voice.getAvailableVoices().iterator();
@@ -24,12 +24,24 @@ import org.apache.log4j.PropertyConfigurator;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.TransformerFactory;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class BtMary
 {
@@ -38,19 +50,148 @@ public class BtMary
     public static final int STATE_RUNNING = 2;
     public static final int STATE_SHUTTING_DOWN = 3;
     private static Logger logger;
-    private static int currentState = 0;
+    private static final Lifecycle OFF = new Lifecycle(STATE_OFF, null);
+    private static final AtomicReference<Lifecycle> lifecycle = new AtomicReference<>(OFF);
+    private static volatile Thread startupThread;
+    private static final AtomicBoolean shutdownHookRegistered = new AtomicBoolean();
+    private static final AtomicInteger inFlightRequests = new AtomicInteger();
+    private static final Object drainLock = new Object();
+    private static volatile long shutdownDrainTimeoutMillis = 30000L;
     private static boolean jarsAdded = false;
+    private static Boolean parallelModuleStartup;
 
     public BtMary() {
     }
 
     public static int currentState() {
-        return currentState;
+        return lifecycle.get().state;
+    }
+
+    /**
+     * Starts MARY on a background thread unless it is already starting or running.
+     *
+     * @return A future that completes once MARY is running, or fails if the startup fails.
+     */
+    public static CompletableFuture<Void> startAsync() {
+        Lifecycle starting = new Lifecycle(STATE_STARTING, new CompletableFuture<>());
+
+        while (true) {
+            Lifecycle current = lifecycle.get();
+
+            if (current.state == STATE_SHUTTING_DOWN) {
+                return CompletableFuture.failedFuture(new MaryNotReadyException("MARY is shutting down", STATE_SHUTTING_DOWN));
+            } else if (current.state != STATE_OFF) {
+                return current.readiness;
+            } else if (lifecycle.compareAndSet(current, starting)) {
+                break;
+            }
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                runStartup(starting, true);
+            } catch (Exception e) {
+                // reported through the readiness future
+            }
+        }, "BtMary-startup");
+        thread.setDaemon(true);
+        thread.start();
+        return starting.readiness;
+    }
+
+    /**
+     * Waits until MARY is running.
+     *
+     * @param timeout The maximum time to wait. 0 answers right away.
+     * @param unit
+     * @throws MaryNotReadyException If MARY is not running in time, was never started or failed to start.
+     * @throws InterruptedException
+     */
+    public static void awaitRunning(long timeout, TimeUnit unit) throws InterruptedException {
+        // the state and its future are read together, so a failed startup can't leave this waiting on the next one
+        Lifecycle current = lifecycle.get();
+
+        if (current.state == STATE_RUNNING) {
+            return;
+        } else if (current.state != STATE_STARTING) {
+            throw new MaryNotReadyException("MARY is not started", current.state);
+        }
+
+        try {
+            current.readiness.get(timeout, unit);
+        } catch (TimeoutException e) {
+            throw new MaryNotReadyException("MARY is still starting", STATE_STARTING);
+        } catch (ExecutionException e) {
+            throw new MaryNotReadyException("MARY failed to start", currentState(), e.getCause());
+        }
+    }
+
+    /**
+     * Marks the start of a request that needs MARY, so that {@link #shutdown()} waits for it to complete. Every
+     * successful call has to be followed by {@link #endRequest()}.
+     *
+     * @throws MaryNotReadyException If MARY is not running.
+     */
+    public static void beginRequest() {
+        inFlightRequests.incrementAndGet();
+        int state = currentState();
+
+        if (state != STATE_RUNNING) {
+            endRequest();
+            throw new MaryNotReadyException("MARY system is not running", state);
+        }
+    }
+
+    public static void endRequest() {
+        if (inFlightRequests.decrementAndGet() == 0) {
+            synchronized (drainLock) {
+                drainLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return The number of requests between {@link #beginRequest()} and {@link #endRequest()}.
+     */
+    public static int getInFlightRequests() {
+        return inFlightRequests.get();
+    }
+
+    /**
+     * @param timeoutMillis How long {@link #shutdown()} waits for in-flight requests before it shuts the modules down
+     *                      anyway.
+     */
+    public static void setShutdownDrainTimeout(long timeoutMillis) {
+        shutdownDrainTimeoutMillis = timeoutMillis;
     }
 
     protected static void addJarsToClasspath() throws Exception {
     }
 
+    /**
+     * Enables or disables starting independent modules in parallel. Defaults to the property
+     * <code>modules.startup.parallel</code>, which is off unless it is set.
+     *
+     * <p>Experimental: MARY does not promise that the startup of its modules is thread-safe, and they share
+     * MaryProperties, the FeatureRegistry and the lexicons. The modules whose class names are listed in the property
+     * <code>modules.startup.sequential</code> are started first, one after another in registration order, so that
+     * modules that others depend on can be listed there. Synthesis modules, which load the voices, are started last
+     * in registration order.</p>
+     *
+     * @param parallel
+     */
+    public static void setParallelModuleStartup(boolean parallel) {
+        parallelModuleStartup = parallel;
+    }
+
+    private static boolean isParallelModuleStartup() {
+        if (parallelModuleStartup == null) {
+            return MaryProperties.getBoolean("modules.startup.parallel", false);
+        }
+
+        return parallelModuleStartup;
+    }
+
     private static void startModules() throws ClassNotFoundException, InstantiationException, Exception {
         Iterator var1 = MaryProperties.moduleInitInfo().iterator();
 
@@ -61,25 +202,29 @@ public class BtMary
         }
 
         ModuleRegistry.setRegistrationComplete();
-        List<Pair<MaryModule, Long>> startupTimes = new ArrayList();
-        Iterator var11 = ModuleRegistry.getAllModules().iterator();
+        List<MaryModule> modulesToStart = new ArrayList<>();
 
-        while(var11.hasNext()) {
-            MaryModule m = (MaryModule)var11.next();
+        for (MaryModule m : ModuleRegistry.getAllModules()) {
             if ((!MaryProperties.getProperty("server").equals("commandline") || m instanceof Synthesis) && m.getState() == 0) {
-                long before = System.currentTimeMillis();
+                modulesToStart.add(m);
+            }
+        }
 
-                try {
-                    m.startup();
-                } catch (Throwable var7) {
-                    throw new Exception("Problem starting module " + m.name(), var7);
-                }
+        List<Pair<MaryModule, Long>> startupTimes = Collections.synchronizedList(new ArrayList<>());
+        long wallClockStart = System.currentTimeMillis();
 
-                long after = System.currentTimeMillis();
-                startupTimes.add(new Pair(m, after - before));
+        if (isParallelModuleStartup()) {
+            startModulesParallel(modulesToStart, startupTimes);
+        } else {
+            for (MaryModule m : modulesToStart) {
+                startModule(m, startupTimes);
             }
+        }
+
+        long wallClockTime = System.currentTimeMillis() - wallClockStart;
 
-            if (MaryProperties.getAutoBoolean("modules.poweronselftest", false)) {
+        if (MaryProperties.getAutoBoolean("modules.poweronselftest", false)) {
+            for (MaryModule m : ModuleRegistry.getAllModules()) {
                 m.powerOnSelfTest();
             }
         }
@@ -91,14 +236,81 @@ public class BtMary
                 }
             });
             logger.debug("Startup times:");
-            var11 = startupTimes.iterator();
+            long totalTime = 0L;
 
-            while(var11.hasNext()) {
-                Pair<MaryModule, Long> p = (Pair)var11.next();
+            for (Pair<MaryModule, Long> p : startupTimes) {
                 logger.debug(((MaryModule)p.getFirst()).name() + ": " + p.getSecond() + " ms");
+                totalTime += p.getSecond();
+            }
+
+            logger.debug("Sum of module startup times: " + totalTime + " ms, wall clock time: " + wallClockTime + " ms"
+                         + (isParallelModuleStartup() ? " (parallel startup saved " + (totalTime - wallClockTime) + " ms)" : ""));
+        }
+
+    }
+
+    private static void startModulesParallel(List<MaryModule> modules, List<Pair<MaryModule, Long>> startupTimes) throws Exception {
+        List<String> sequentialClassNames = MaryProperties.getList("modules.startup.sequential");
+        Set<String> sequentialClasses = sequentialClassNames == null ? Collections.emptySet() : new HashSet<>(sequentialClassNames);
+        List<MaryModule> parallel = new ArrayList<>();
+        List<MaryModule> synthesis = new ArrayList<>();
+
+        for (MaryModule m : modules) {
+            if (sequentialClasses.contains(m.getClass().getName())) {
+                startModule(m, startupTimes);
+            } else if (m instanceof Synthesis) {
+                synthesis.add(m);
+            } else {
+                parallel.add(m);
+            }
+        }
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        try {
+            for (MaryModule m : parallel) {
+                tasks.add(pool.submit(() -> {
+                    startModule(m, startupTimes);
+                    return null;
+                }));
+            }
+
+            Exception failure = null;
+
+            for (ForkJoinTask<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = (Exception)e.getCause();
+                    }
+                }
             }
+
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            pool.shutdown();
         }
 
+        for (MaryModule m : synthesis) {
+            startModule(m, startupTimes);
+        }
+    }
+
+    private static void startModule(MaryModule m, List<Pair<MaryModule, Long>> startupTimes) throws Exception {
+        long before = System.currentTimeMillis();
+
+        try {
+            m.startup();
+        } catch (Throwable var7) {
+            throw new Exception("Problem starting module " + m.name(), var7);
+        }
+
+        long after = System.currentTimeMillis();
+        startupTimes.add(new Pair(m, after - before));
     }
 
     private static void setupFeatureProcessors() throws Exception {
@@ -128,94 +340,124 @@ public class BtMary
     }
 
     public static void startup(boolean addJarsToClasspath) throws Exception {
-        if (currentState != 0) {
+        Lifecycle starting = new Lifecycle(STATE_STARTING, new CompletableFuture<>());
+
+        if (!lifecycle.compareAndSet(OFF, starting)) {
             throw new IllegalStateException("Cannot start system: it is not offline");
-        } else {
-            currentState = 1;
-            if (addJarsToClasspath) {
-                addJarsToClasspath();
-            }
+        }
 
-            configureLogging();
-            logger.info("Mary starting up...");
-            logger.info("Specification version " + Version.specificationVersion());
-            logger.info("Implementation version " + Version.implementationVersion());
-            logger.info("Running on a Java " + System.getProperty("java.version") + " implementation by " + System.getProperty("java.vendor") + ", on a " + System.getProperty("os.name") + " platform (" + System.getProperty("os.arch") + ", " + System.getProperty("os.version") + ")");
-            logger.debug("MARY_BASE: " + MaryProperties.maryBase());
-            String[] installedFilenames = (new File(MaryProperties.maryBase() + "/installed")).list();
-            int var5;
-            if (installedFilenames == null) {
-                logger.debug("The installed/ folder does not exist.");
-            } else {
-                StringBuilder installedMsg = new StringBuilder();
-                String[] var6 = installedFilenames;
-                var5 = installedFilenames.length;
-
-                for(int var4 = 0; var4 < var5; ++var4) {
-                    String filename = var6[var4];
-                    if (installedMsg.length() > 0) {
-                        installedMsg.append(", ");
-                    }
+        runStartup(starting, addJarsToClasspath);
+    }
 
-                    installedMsg.append(filename);
+    /**
+     * @return true if the current thread is running the startup.
+     */
+    static boolean isStartupThread() {
+        return Thread.currentThread() == startupThread;
+    }
+
+    private static void runStartup(Lifecycle starting, boolean addJarsToClasspath) throws Exception {
+        startupThread = Thread.currentThread();
+
+        try {
+            startupSequence(addJarsToClasspath);
+        } catch (Exception | Error e) {
+            // allow another attempt and let everyone waiting for this one know that it failed
+            lifecycle.set(OFF);
+            starting.readiness.completeExceptionally(e);
+            throw e;
+        } finally {
+            startupThread = null;
+        }
+
+        lifecycle.set(new Lifecycle(STATE_RUNNING, starting.readiness));
+        starting.readiness.complete(null);
+        VoiceLoader.startupComplete();
+    }
+
+    private static void startupSequence(boolean addJarsToClasspath) throws Exception {
+        if (addJarsToClasspath) {
+            addJarsToClasspath();
+        }
+
+        configureLogging();
+        logger.info("Mary starting up...");
+        logger.info("Specification version " + Version.specificationVersion());
+        logger.info("Implementation version " + Version.implementationVersion());
+        logger.info("Running on a Java " + System.getProperty("java.version") + " implementation by " + System.getProperty("java.vendor") + ", on a " + System.getProperty("os.name") + " platform (" + System.getProperty("os.arch") + ", " + System.getProperty("os.version") + ")");
+        logger.debug("MARY_BASE: " + MaryProperties.maryBase());
+        String[] installedFilenames = (new File(MaryProperties.maryBase() + "/installed")).list();
+        int var5;
+        if (installedFilenames == null) {
+            logger.debug("The installed/ folder does not exist.");
+        } else {
+            StringBuilder installedMsg = new StringBuilder();
+            String[] var6 = installedFilenames;
+            var5 = installedFilenames.length;
+
+            for(int var4 = 0; var4 < var5; ++var4) {
+                String filename = var6[var4];
+                if (installedMsg.length() > 0) {
+                    installedMsg.append(", ");
                 }
 
-                logger.debug("Content of installed/ folder: " + installedMsg);
+                installedMsg.append(filename);
             }
 
-            String[] confFilenames = (new File(MaryProperties.maryBase() + "/conf")).list();
-            if (confFilenames == null) {
-                logger.debug("The conf/ folder does not exist.");
-            } else {
-                StringBuilder confMsg = new StringBuilder();
-                String[] var7 = confFilenames;
-                int var15 = confFilenames.length;
-
-                for(var5 = 0; var5 < var15; ++var5) {
-                    String filename = var7[var5];
-                    if (confMsg.length() > 0) {
-                        confMsg.append(", ");
-                    }
+            logger.debug("Content of installed/ folder: " + installedMsg);
+        }
 
-                    confMsg.append(filename);
+        String[] confFilenames = (new File(MaryProperties.maryBase() + "/conf")).list();
+        if (confFilenames == null) {
+            logger.debug("The conf/ folder does not exist.");
+        } else {
+            StringBuilder confMsg = new StringBuilder();
+            String[] var7 = confFilenames;
+            int var15 = confFilenames.length;
+
+            for(var5 = 0; var5 < var15; ++var5) {
+                String filename = var7[var5];
+                if (confMsg.length() > 0) {
+                    confMsg.append(", ");
                 }
 
-                logger.debug("Content of conf/ folder: " + confMsg);
+                confMsg.append(filename);
             }
 
-            logger.debug("Full dump of system properties:");
-            Iterator var14 = (new TreeSet(System.getProperties().keySet())).iterator();
+            logger.debug("Content of conf/ folder: " + confMsg);
+        }
 
-            while(var14.hasNext()) {
-                Object key = var14.next();
-                logger.debug(key + " = " + System.getProperties().get(key));
-            }
+        logger.debug("Full dump of system properties:");
+        Iterator var14 = (new TreeSet(System.getProperties().keySet())).iterator();
 
-            logger.debug("XML libraries used:");
-            logger.debug("DocumentBuilderFactory: " + DocumentBuilderFactory.newInstance().getClass());
+        while(var14.hasNext()) {
+            Object key = var14.next();
+            logger.debug(key + " = " + System.getProperties().get(key));
+        }
 
-            try {
-                Class<? extends Object> xercesVersion = Class.forName("org.apache.xerces.impl.Version");
-                logger.debug(xercesVersion.getMethod("getVersion").invoke((Object)null));
-            } catch (Exception var8) {
-            }
+        logger.debug("XML libraries used:");
+        logger.debug("DocumentBuilderFactory: " + DocumentBuilderFactory.newInstance().getClass());
 
-            logger.debug("TransformerFactory:     " + TransformerFactory.newInstance().getClass());
+        try {
+            Class<? extends Object> xercesVersion = Class.forName("org.apache.xerces.impl.Version");
+            logger.debug(xercesVersion.getMethod("getVersion").invoke((Object)null));
+        } catch (Exception var8) {
+        }
 
-            // removed because it checks the Java version with a substring
-            // after the update to Java 17 the version string is shorter, so the substring call causes an exception
-            //EnvironmentChecks.check();
+        logger.debug("TransformerFactory:     " + TransformerFactory.newInstance().getClass());
 
-            Runtime.getRuntime().addShutdownHook(new Thread() {
-                public void run() {
-                    Mary.shutdown();
-                }
-            });
-            setupFeatureProcessors();
-            startModules();
-            logger.info("Startup complete.");
-            currentState = 2;
+        // removed because it checks the Java version with a substring
+        // after the update to Java 17 the version string is shorter, so the substring call causes an exception
+        //EnvironmentChecks.check();
+
+        // a failed startup can be retried, but the hook must only be registered once
+        if (shutdownHookRegistered.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(BtMary::shutdownIfRunning, "BtMary-shutdown"));
         }
+
+        setupFeatureProcessors();
+        startModules();
+        logger.info("Startup complete.");
     }
 
     private static void configureLogging() throws MaryConfigurationException, IOException
@@ -253,40 +495,115 @@ public class BtMary
         logger = MaryUtils.getLogger("main");
     }
 
+    /**
+     * Shuts MARY down after the in-flight requests have completed, or after the drain timeout. New requests are
+     * refused as soon as the shutdown begins. The modules are shut down in parallel.
+     */
     public static void shutdown() {
-        if (currentState != 2) {
+        Lifecycle running = lifecycle.get();
+
+        if (running.state != STATE_RUNNING || !lifecycle.compareAndSet(running, new Lifecycle(STATE_SHUTTING_DOWN, null))) {
             throw new IllegalStateException("MARY system is not running");
-        } else {
-            currentState = 3;
-            logger.info("Shutting down modules...");
-            Iterator var1 = ModuleRegistry.getAllModules().iterator();
+        }
+
+        drainRequests();
+        logger.info("Shutting down modules...");
+        long before = System.currentTimeMillis();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
-            while(var1.hasNext()) {
-                MaryModule m = (MaryModule)var1.next();
+        try {
+            for (MaryModule m : ModuleRegistry.getAllModules()) {
                 if (m.getState() == 1) {
-                    m.shutdown();
+                    tasks.add(pool.submit(() -> {
+                        try {
+                            m.shutdown();
+                        } catch (RuntimeException e) {
+                            logger.warn("Cannot shutdown module " + m.name() + ": ", e);
+                        }
+                    }));
                 }
             }
 
-            if (MaryCache.haveCache()) {
-                MaryCache cache = MaryCache.getCache();
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        if (MaryCache.haveCache()) {
+            MaryCache cache = MaryCache.getCache();
+
+            try {
+                cache.shutdown();
+            } catch (SQLException var2) {
+                logger.warn("Cannot shutdown cache: ", var2);
+            }
+        }
+
+        logger.info("Shutdown complete in " + (System.currentTimeMillis() - before) + " ms.");
+        lifecycle.set(OFF);
+    }
+
+    /**
+     * Shuts MARY down when the JVM exits, unless it is not running or an explicit shutdown is already in progress.
+     */
+    private static void shutdownIfRunning() {
+        if (currentState() == STATE_RUNNING) {
+            try {
+                shutdown();
+            } catch (IllegalStateException e) {
+                // shut down concurrently
+            }
+        }
+    }
+
+    private static void drainRequests() {
+        long deadline = System.currentTimeMillis() + shutdownDrainTimeoutMillis;
+
+        synchronized (drainLock) {
+            while (inFlightRequests.get() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+
+                if (remaining <= 0) {
+                    logger.warn("Shutting down with " + inFlightRequests.get() + " requests still in flight");
+                    return;
+                }
 
                 try {
-                    cache.shutdown();
-                } catch (SQLException var2) {
-                    logger.warn("Cannot shutdown cache: ", var2);
+                    drainLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
             }
-
-            logger.info("Shutdown complete.");
-            currentState = 0;
         }
     }
 
     public static void process(String input, String inputTypeName, String outputTypeName, String localeString, String audioTypeName, String voiceName, String style, String effects, String outputTypeParams, OutputStream output) throws Exception {
-        if (currentState != 2) {
-            throw new IllegalStateException("MARY system is not running");
-        } else {
+        try {
+            processAsync(input, inputTypeName, outputTypeName, localeString, audioTypeName, voiceName, style, effects, outputTypeParams, output).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception)e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Like {@link #process(String, String, String, String, String, String, String, String, String, OutputStream)},
+     * but MP3 and Ogg Vorbis are encoded and written to the output on the {@link AudioEncodingStage}, so that the
+     * calling thread is free again as soon as the synthesis is done. The output must not be used until the returned
+     * future completes. Other output is written before this method returns.
+     */
+    public static CompletableFuture<Void> processAsync(String input, String inputTypeName, String outputTypeName, String localeString, String audioTypeName, String voiceName, String style, String effects, String outputTypeParams, OutputStream output) throws Exception {
+        beginRequest();
+        boolean handedOff = false;
+
+        try {
             MaryDataType inputType = MaryDataType.get(inputTypeName);
             MaryDataType outputType = MaryDataType.get(outputTypeName);
             Locale locale = MaryUtils.string2locale(localeString);
@@ -297,26 +614,65 @@ public class BtMary
 
             AudioFileFormat audioFileFormat = null;
             AudioFileFormat.Type audioType = null;
+            boolean encodeSeparately = false;
             if (audioTypeName != null) {
                 audioType = MaryAudioUtils.getAudioFileFormatType(audioTypeName);
                 AudioFormat audioFormat = null;
-                if (audioTypeName.equals("MP3")) {
-                    audioFormat = MaryRuntimeUtils.getMP3AudioFormat();
-                } else if (audioTypeName.equals("Vorbis")) {
-                    audioFormat = MaryRuntimeUtils.getOggAudioFormat();
-                } else if (voice != null) {
+                if (voice != null) {
                     audioFormat = voice.dbAudioFormat();
                 } else {
                     audioFormat = Voice.AF22050;
                 }
 
-                audioFileFormat = new AudioFileFormat(audioType, audioFormat, -1);
+                // compressed formats are synthesized as PCM and encoded on the encoding stage, so that the encoding
+                // time is measured separately and the encoder threads are shared between all requests
+                encodeSeparately = audioTypeName.equals("MP3") || audioTypeName.equals("Vorbis");
+                audioFileFormat = new AudioFileFormat(encodeSeparately ? AudioFileFormat.Type.WAVE : audioType, audioFormat, -1);
             }
 
             Request request = new Request(inputType, outputType, locale, voice, effects, style, 1, audioFileFormat, false, outputTypeParams);
             request.setInputData(input);
+            long before = System.currentTimeMillis();
             request.process();
+
+            if (encodeSeparately && outputType.equals(MaryDataType.AUDIO)) {
+                long synthesized = System.currentTimeMillis();
+
+                // the synthesized stream is encoded as it is, the request stays in flight until the output is written
+                AudioInputStream audio = BtMaryRuntimeUtils.captureAudio(request.getOutputData().getAudio());
+                CompletableFuture<Void> written = AudioEncodingStage.getDefault().encode(audio, audioType, output).handle((v, e) -> {
+                    endRequest();
+
+                    if (e != null) {
+                        throw new CompletionException(new Exception("Cannot encode audio as " + audioTypeName, e instanceof CompletionException ? e.getCause() : e));
+                    }
+
+                    logger.debug("Synthesis took " + (synthesized - before) + " ms, encoding as " + audioTypeName + " took " + (System.currentTimeMillis() - synthesized) + " ms");
+                    return null;
+                });
+                handedOff = true;
+                return written;
+            }
+
             request.writeOutputData(output);
+            return CompletableFuture.completedFuture(null);
+        } finally {
+            if (!handedOff) {
+                endRequest();
+            }
+        }
+    }
+
+    /**
+     * A state together with the future of the startup it belongs to, so that both always change at once.
+     */
+    private static final class Lifecycle {
+        private final int state;
+        private final CompletableFuture<Void> readiness;
+
+        private Lifecycle(int state, CompletableFuture<Void> readiness) {
+            this.state = state;
+            this.readiness = readiness;
         }
     }
 
@@ -352,7 +708,8 @@ public class BtMary
         if (server.equals("socket")) {
             main = (Runnable)Class.forName("marytts.server.MaryServer").newInstance();
         } else if (server.equals("http")) {
-            main = (Runnable)Class.forName("marytts.server.http.MaryHttpServer").newInstance();
+            SynthesisHttpServer httpServer = new SynthesisHttpServer(new InetSocketAddress(localPort));
+            main = httpServer::start;
         } else {
             main = new Runnable() {
                 public void run() {
@@ -5,7 +5,6 @@ import marytts.config.LanguageConfig;
 import marytts.config.MaryConfig;
 import marytts.datatypes.MaryDataType;
 import marytts.exceptions.MaryConfigurationException;
-import marytts.fst.FSTLookup;
 import marytts.htsengine.HMMVoice;
 import marytts.modules.phonemiser.AllophoneSet;
 import marytts.modules.synthesis.Voice;
@@ -24,27 +23,62 @@ import org.w3c.dom.Element;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class BtMaryRuntimeUtils
 {
     private static long lowMemoryThreshold = -1L;
-    private static final String audiostoreProperty = MaryProperties.getProperty("synthesis.audiostore", "ram");
+    private static final String audiostoreProperty = MaryProperties.getProperty("synthesis.audiostore", "auto");
 
     public BtMaryRuntimeUtils() {
     }
 
+    /**
+     * Starts MARY unless it is already running and waits until it is. Callers that arrive during the startup wait for
+     * the same startup instead of queuing on a lock.
+     */
     public static void ensureMaryStarted() throws Exception {
-        synchronized(MaryConfig.getMainConfig()) {
-            if (BtMary.currentState() == 0) {
-                BtMary.startup();
+        if (BtMary.currentState() == BtMary.STATE_RUNNING || BtMary.isStartupThread()) {
+            return;
+        }
+
+        try {
+            BtMary.startAsync().get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+        }
+    }
+
+    /**
+     * Starts MARY unless it is already running and waits at most the given time for it.
+     *
+     * @throws MaryNotReadyException If MARY is not running in time, is shutting down or failed to start.
+     */
+    public static void ensureMaryStarted(long timeout, TimeUnit unit) throws InterruptedException {
+        if (BtMary.currentState() == BtMary.STATE_RUNNING || BtMary.isStartupThread()) {
+            return;
+        }
+
+        // waits on the future of the startup that was found or begun, even if it fails before the wait begins
+        try {
+            BtMary.startAsync().get(timeout, unit);
+        } catch (TimeoutException e) {
+            throw new MaryNotReadyException("MARY is still starting", BtMary.STATE_STARTING);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MaryNotReadyException) {
+                throw (MaryNotReadyException)e.getCause();
             }
 
+            throw new MaryNotReadyException("MARY failed to start", BtMary.currentState(), e.getCause());
         }
     }
 
@@ -102,6 +136,13 @@ public class BtMaryRuntimeUtils
         return MaryUtils.availableMemory() < lowMemoryThreshold() / 2L;
     }
 
+    /**
+     * @return The number of free bytes below which memory is considered low, from the mary.lowmemory property.
+     */
+    public static long getLowMemoryThreshold() {
+        return lowMemoryThreshold();
+    }
+
     private static long lowMemoryThreshold() {
         if (lowMemoryThreshold < 0L) {
             lowMemoryThreshold = (long)MaryProperties.getInteger("mary.lowmemory", 10000000);
@@ -187,20 +228,51 @@ public class BtMaryRuntimeUtils
         return allophoneSet;
     }
 
+    /**
+     * Creates the destination for synthesized audio according to the synthesis.audiostore property. "ram" and "file"
+     * force the respective MARY store, "auto" (the default) stores the audio in pooled direct buffers that spill to a
+     * memory mapped file past the budgets of {@link SpillableAudioStore}.
+     */
     public static AudioDestination createAudioDestination() throws IOException
     {
-        boolean ram = false;
         if (audiostoreProperty.equals("ram")) {
-            ram = true;
+            return new AudioDestination(true);
         } else if (audiostoreProperty.equals("file")) {
-            ram = false;
-        } else if (lowMemoryCondition()) {
-            ram = false;
-        } else {
-            ram = true;
+            return new AudioDestination(false);
+        }
+
+        return new SpillableAudioDestination();
+    }
+
+    /**
+     * Drains the audio output of MARY into a destination from {@link #createAudioDestination()}. MARY produces the
+     * samples of its output stream while it is read, so they are written to the destination as they are produced
+     * instead of being collected on the heap. With the "ram" store the stream is returned as it is.
+     *
+     * @param audio The output of MARY, closed once it was drained.
+     * @return A stream over the stored audio that releases the store once it is closed.
+     * @throws IOException
+     */
+    public static AudioInputStream captureAudio(AudioInputStream audio) throws IOException
+    {
+        if (audiostoreProperty.equals("ram")) {
+            return audio;
+        }
+
+        AudioDestination destination = createAudioDestination();
+
+        try (audio) {
+            destination.append(audio);
+        }
+
+        AudioInputStream stored = destination.convertToAudioInputStream(audio.getFormat());
+
+        if (destination instanceof SpillableAudioDestination) {
+            // the returned stream keeps the store alive until it is closed
+            ((SpillableAudioDestination)destination).close();
         }
 
-        return new AudioDestination(ram);
+        return stored;
     }
 
     public static AllophoneSet needAllophoneSet(String propertyName) throws MaryConfigurationException {
@@ -224,10 +296,7 @@ public class BtMaryRuntimeUtils
     }
 
     public static String[] checkLexicon(String propertyName, String token) throws IOException, MaryConfigurationException {
-        String lexiconProperty = propertyName + ".lexicon";
-        InputStream lexiconStream = MaryProperties.needStream(lexiconProperty);
-        FSTLookup lexicon = new FSTLookup(lexiconStream, lexiconProperty);
-        return lexicon.lookup(token.toLowerCase());
+        return LexiconService.getDefault().lookup(propertyName, token);
     }
 
     public static String getMaryVersion() {
@@ -0,0 +1,85 @@
+package bt.speech.tts;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputStream} that reads from a {@link ByteBuffer} without copying its content.
+ *
+ * <p>The stream works on its own duplicate of the given buffer, so several streams can read the same shared
+ * data independently.</p>
+ *
+ * @author &#8904
+ */
+public class ByteBufferInputStream extends InputStream
+{
+    private final ByteBuffer buffer;
+    private int mark;
+
+    public ByteBufferInputStream(ByteBuffer buffer)
+    {
+        this.buffer = buffer.duplicate();
+        this.mark = this.buffer.position();
+    }
+
+    @Override
+    public int read()
+    {
+        if (!this.buffer.hasRemaining())
+        {
+            return -1;
+        }
+
+        return this.buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+
+        if (!this.buffer.hasRemaining())
+        {
+            return -1;
+        }
+
+        int count = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n)
+    {
+        int count = (int)Math.max(0, Math.min(n, this.buffer.remaining()));
+        this.buffer.position(this.buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available()
+    {
+        return this.buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit)
+    {
+        this.mark = this.buffer.position();
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        this.buffer.position(this.mark);
+    }
+}
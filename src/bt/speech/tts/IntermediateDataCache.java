@@ -0,0 +1,136 @@
+package bt.speech.tts;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Size bounded cache of intermediate MaryXML documents, i.e. the ACOUSTPARAMS produced for a text by a voice.
+ *
+ * <p>Documents are stored serialized. Every hit is parsed into a new document, so later pipeline stages can modify
+ * it without affecting the cached version. Entries are evicted in least recently used order once the cached strings
+ * exceed the byte budget.</p>
+ *
+ * @author &#8904
+ */
+public class IntermediateDataCache
+{
+    private final BoundedLruCache<Key, String> entries;
+
+    /**
+     * @param maxBytes The maximum number of bytes the cached documents may occupy. 0 disables the cache.
+     */
+    public IntermediateDataCache(long maxBytes)
+    {
+        this.entries = new BoundedLruCache<>(maxBytes, IntermediateDataCache::sizeOf);
+    }
+
+    /**
+     * @return The serialized document or null.
+     */
+    public String get(String text, Locale locale, String voice, String type)
+    {
+        return this.entries.get(new Key(text, locale, voice, type));
+    }
+
+    public void put(String text, Locale locale, String voice, String type, String xml)
+    {
+        this.entries.put(new Key(text, locale, voice, type), xml);
+    }
+
+    /**
+     * Changes the byte budget, evicting documents if the new budget is smaller than the current size.
+     *
+     * @param maxBytes
+     */
+    public void setMaxBytes(long maxBytes)
+    {
+        this.entries.setMaxBytes(maxBytes);
+    }
+
+    public boolean isEnabled()
+    {
+        return this.entries.isEnabled();
+    }
+
+    public void clear()
+    {
+        this.entries.clear();
+    }
+
+    public int size()
+    {
+        return this.entries.size();
+    }
+
+    public long getCurrentBytes()
+    {
+        return this.entries.getCurrentBytes();
+    }
+
+    public long getHits()
+    {
+        return this.entries.getHits();
+    }
+
+    public long getMisses()
+    {
+        return this.entries.getMisses();
+    }
+
+    public long getEvictions()
+    {
+        return this.entries.getEvictions();
+    }
+
+    private static long sizeOf(Key key, String xml)
+    {
+        return 64 + 2L * (key.text.length() + xml.length());
+    }
+
+    @Override
+    public String toString()
+    {
+        return "IntermediateDataCache[entries=" + size() + ", bytes=" + getCurrentBytes()
+                + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+
+    private static final class Key
+    {
+        private final String text;
+        private final Locale locale;
+        private final String voice;
+        private final String type;
+        private final int hash;
+
+        private Key(String text, Locale locale, String voice, String type)
+        {
+            this.text = text;
+            this.locale = locale;
+            this.voice = voice;
+            this.type = type;
+            this.hash = Objects.hash(text, locale, voice, type);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+
+            Key other = (Key)o;
+            return this.hash == other.hash
+                    && this.text.equals(other.text)
+                    && Objects.equals(this.locale, other.locale)
+                    && Objects.equals(this.voice, other.voice)
+                    && Objects.equals(this.type, other.type);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.hash;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package bt.speech.tts;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of non negative values with logarithmic buckets, in the style of HdrHistogram.
+ *
+ * <p>Every power of two is divided into 32 linear sub buckets, so recorded values and reported percentiles are
+ * accurate to about 3% over the whole range of <code>long</code>.</p>
+ *
+ * @author &#8904
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value)
+    {
+        if (value < 0)
+        {
+            value = 0;
+        }
+
+        this.counts.incrementAndGet(indexOf(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        this.max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount()
+    {
+        return this.count.get();
+    }
+
+    public long getMax()
+    {
+        return this.max.get();
+    }
+
+    public double getMean()
+    {
+        long n = this.count.get();
+        return n == 0 ? 0 : (double)this.sum.get() / n;
+    }
+
+    /**
+     * @param percentile I.e. 99.9
+     * @return The highest value that is equivalent to the value at the given percentile, or 0 if nothing was
+     *         recorded.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long n = this.count.get();
+
+        if (n == 0)
+        {
+            return 0;
+        }
+
+        long target = Math.max(1, (long)Math.ceil(Math.min(percentile, 100) / 100 * n));
+        long cumulative = 0;
+
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            cumulative += this.counts.get(i);
+
+            if (cumulative >= target)
+            {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            this.counts.set(i, 0);
+        }
+
+        this.count.set(0);
+        this.sum.set(0);
+        this.max.set(0);
+    }
+
+    private static int indexOf(long value)
+    {
+        if (value < 2 * SUB_BUCKETS)
+        {
+            return (int)value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int)(value >>> shift);
+    }
+
+    private static long highestEquivalentValue(int index)
+    {
+        if (index < 2 * SUB_BUCKETS)
+        {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        long top = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,182 @@
+package bt.speech.tts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import marytts.exceptions.MaryConfigurationException;
+import marytts.fst.FSTLookup;
+import marytts.server.MaryProperties;
+
+/**
+ * Thread safe access to the pronunciation lexicons of the configured locales.
+ *
+ * <p>Each lexicon FST is loaded once and then shared by all threads. Lookup results are memoized in a bounded cache,
+ * which is split into independently locked segments so that concurrent lookups rarely contend.</p>
+ *
+ * @author &#8904
+ */
+public class LexiconService
+{
+    /** The default maximum number of memoized lookups. */
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+
+    private static final int SEGMENTS = 16;
+    private static final LexiconService defaultInstance = new LexiconService(DEFAULT_CACHE_SIZE);
+
+    private final Map<String, FSTLookup> lexicons = new ConcurrentHashMap<>();
+    private final List<Map<String, String[]>> segments = new ArrayList<>(SEGMENTS);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param cacheSize The maximum number of memoized lookups. 0 disables memoization.
+     */
+    public LexiconService(int cacheSize)
+    {
+        int segmentSize = (cacheSize + SEGMENTS - 1) / SEGMENTS;
+
+        for (int i = 0; i < SEGMENTS; i++)
+        {
+            this.segments.add(Collections.synchronizedMap(new LinkedHashMap<String, String[]>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest)
+                {
+                    return size() > segmentSize;
+                }
+            }));
+        }
+    }
+
+    /**
+     * @return The instance used by {@link BtMaryRuntimeUtils#checkLexicon(String, String)}.
+     */
+    public static LexiconService getDefault()
+    {
+        return defaultInstance;
+    }
+
+    /**
+     * Looks up the transcriptions of the given token.
+     *
+     * @param propertyName The locale prefix of the lexicon property, i.e. <code>en_US</code> for
+     *                     <code>en_US.lexicon</code>.
+     * @param token
+     * @return The transcriptions, empty if the token is not in the lexicon.
+     * @throws IOException
+     * @throws MaryConfigurationException
+     */
+    public String[] lookup(String propertyName, String token) throws IOException, MaryConfigurationException
+    {
+        FSTLookup lexicon = getLexicon(propertyName);
+        String lowerCase = token.toLowerCase();
+        String key = propertyName + '\u0000' + lowerCase;
+        Map<String, String[]> segment = this.segments.get((key.hashCode() & Integer.MAX_VALUE) % SEGMENTS);
+        String[] result = segment.get(key);
+
+        if (result == null)
+        {
+            this.misses.incrementAndGet();
+            result = lexicon.lookup(lowerCase);
+            segment.put(key, result);
+        }
+        else
+        {
+            this.hits.incrementAndGet();
+        }
+
+        return result.clone();
+    }
+
+    /**
+     * Looks up all given tokens in parallel.
+     *
+     * @param propertyName
+     * @param tokens
+     * @return The transcriptions of each token, in the order of the tokens.
+     * @throws IOException
+     * @throws MaryConfigurationException
+     */
+    public List<String[]> lookupAll(String propertyName, List<String> tokens) throws IOException, MaryConfigurationException
+    {
+        // load once up front so that the parallel lookups don't have to deal with checked exceptions
+        getLexicon(propertyName);
+
+        return tokens.parallelStream().map(token ->
+        {
+            try
+            {
+                return lookup(propertyName, token);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            catch (MaryConfigurationException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * @param propertyName
+     * @return The shared lexicon of the given locale prefix, loading it if necessary.
+     * @throws IOException
+     * @throws MaryConfigurationException
+     */
+    public FSTLookup getLexicon(String propertyName) throws IOException, MaryConfigurationException
+    {
+        FSTLookup lexicon = this.lexicons.get(propertyName);
+
+        if (lexicon == null)
+        {
+            synchronized (this.lexicons)
+            {
+                lexicon = this.lexicons.get(propertyName);
+
+                if (lexicon == null)
+                {
+                    String lexiconProperty = propertyName + ".lexicon";
+
+                    try (InputStream lexiconStream = MaryProperties.needStream(lexiconProperty))
+                    {
+                        lexicon = new FSTLookup(lexiconStream, lexiconProperty);
+                    }
+
+                    this.lexicons.put(propertyName, lexicon);
+                }
+            }
+        }
+
+        return lexicon;
+    }
+
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+
+    public void clearCache()
+    {
+        for (Map<String, String[]> segment : this.segments)
+        {
+            segment.clear();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package bt.speech.tts;
+
+/**
+ * Thrown if MARY is needed but not running, i.e. because it is still starting up or shutting down.
+ *
+ * @author &#8904
+ * @see BtMary#awaitRunning(long, java.util.concurrent.TimeUnit)
+ */
+public class MaryNotReadyException extends IllegalStateException
+{
+    private final int state;
+
+    public MaryNotReadyException(String message, int state)
+    {
+        super(message);
+        this.state = state;
+    }
+
+    public MaryNotReadyException(String message, int state, Throwable cause)
+    {
+        super(message, cause);
+        this.state = state;
+    }
+
+    /**
+     * @return The lifecycle state of MARY at the time of the exception, i.e. {@link BtMary#STATE_STARTING}.
+     */
+    public int getState()
+    {
+        return this.state;
+    }
+}
@@ -0,0 +1,88 @@
+package bt.speech.tts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * Immutable piece of synthesized PCM audio.
+ *
+ * <p>The samples are kept in a single {@link ByteBuffer} which is never modified after construction, so one
+ * instance can be shared between threads and handed out as any number of independent {@link AudioInputStream}s.</p>
+ *
+ * @author &#8904
+ */
+public final class PcmAudio
+{
+    private final AudioFormat format;
+    private final ByteBuffer data;
+
+    public PcmAudio(AudioFormat format, ByteBuffer data)
+    {
+        this.format = format;
+        this.data = data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Reads the given stream until its end and closes it.
+     *
+     * @param audio
+     * @return The read audio.
+     * @throws IOException
+     */
+    public static PcmAudio read(AudioInputStream audio) throws IOException
+    {
+        try (audio)
+        {
+            long frameLength = audio.getFrameLength();
+            int frameSize = audio.getFormat().getFrameSize();
+            int expectedSize = 8192;
+
+            if (frameLength != AudioSystem.NOT_SPECIFIED && frameSize != AudioSystem.NOT_SPECIFIED)
+            {
+                expectedSize = (int)Math.min(Integer.MAX_VALUE - 8, frameLength * frameSize);
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(expectedSize);
+            audio.transferTo(out);
+            return new PcmAudio(audio.getFormat(), ByteBuffer.wrap(out.toByteArray()));
+        }
+    }
+
+    public AudioFormat getFormat()
+    {
+        return this.format;
+    }
+
+    /**
+     * @return A read only view of the samples, positioned at the start.
+     */
+    public ByteBuffer getData()
+    {
+        return this.data.duplicate();
+    }
+
+    /**
+     * @return The size of the samples in bytes.
+     */
+    public int size()
+    {
+        return this.data.remaining();
+    }
+
+    /**
+     * Creates a new stream over the shared samples. No data is copied.
+     *
+     * @return
+     */
+    public AudioInputStream toAudioInputStream()
+    {
+        int frameSize = this.format.getFrameSize();
+        long frameLength = frameSize > 0 ? size() / frameSize : AudioSystem.NOT_SPECIFIED;
+        return new AudioInputStream(new ByteBufferInputStream(this.data), this.format, frameLength);
+    }
+}
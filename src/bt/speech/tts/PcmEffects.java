@@ -0,0 +1,237 @@
+package bt.speech.tts;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+import marytts.signalproc.effects.AudioEffect;
+import marytts.signalproc.effects.AudioEffects;
+import marytts.util.data.DoubleDataSource;
+import marytts.util.data.audio.AudioDoubleDataSource;
+import marytts.util.data.audio.DDSAudioInputStream;
+
+/**
+ * Applies gain and audio effects that don't depend on HMM parameters to already synthesized PCM.
+ *
+ * <p>A MARY effects string, i.e. {@code "Volume(amount:2.0)+TractScaler(amount:1.5)"}, is split into the effects
+ * that have to take part in the synthesis (see {@link BtMaryRuntimeUtils#isHmmAudioEffect(String)}) and the ones
+ * that can be applied afterwards. Only the former become part of the synthesis request and the cache key, so cached
+ * audio can be reused across volume settings.</p>
+ *
+ * @author &#8904
+ */
+public final class PcmEffects
+{
+    private PcmEffects()
+    {
+    }
+
+    /**
+     * @param effects A MARY effects string or null.
+     * @return The effects of the given string that have to be applied during synthesis, or null if there are none.
+     *         Unknown effects are kept here so that MARY reports them.
+     */
+    public static String synthesisEffects(String effects)
+    {
+        return filter(effects, true);
+    }
+
+    /**
+     * @param effects A MARY effects string or null.
+     * @return The effects of the given string that can be applied to synthesized PCM, or null if there are none.
+     */
+    public static String postEffects(String effects)
+    {
+        return filter(effects, false);
+    }
+
+    private static String filter(String effects, boolean synthesis)
+    {
+        if (effects == null || effects.isBlank())
+        {
+            return null;
+        }
+
+        StringBuilder filtered = new StringBuilder();
+
+        for (String effect : effects.split("\\+"))
+        {
+            effect = effect.trim();
+
+            if (effect.isEmpty())
+            {
+                continue;
+            }
+
+            boolean post = "no".equals(BtMaryRuntimeUtils.isHmmAudioEffect(effectName(effect)));
+
+            if (post != synthesis)
+            {
+                if (filtered.length() > 0)
+                {
+                    filtered.append('+');
+                }
+
+                filtered.append(effect);
+            }
+        }
+
+        return filtered.length() == 0 ? null : filtered.toString();
+    }
+
+    private static String effectName(String effect)
+    {
+        int paramStart = effect.indexOf('(');
+        return (paramStart < 0 ? effect : effect.substring(0, paramStart)).trim();
+    }
+
+    private static String effectParams(String effect)
+    {
+        int paramStart = effect.indexOf('(');
+        int paramEnd = effect.lastIndexOf(')');
+
+        if (paramStart < 0 || paramEnd < paramStart)
+        {
+            return "";
+        }
+
+        return effect.substring(paramStart + 1, paramEnd);
+    }
+
+    /**
+     * @param gain
+     * @param postEffects
+     * @return true if the given gain and effects leave the audio unchanged.
+     */
+    public static boolean isIdentity(float gain, String postEffects)
+    {
+        return gain == 1.0f && postEffects == null;
+    }
+
+    /**
+     * Applies the given effects and gain to a copy of the given audio.
+     *
+     * @param audio
+     * @param gain        Linear factor for all samples.
+     * @param postEffects Effects as returned by {@link #postEffects(String)}.
+     * @return The given audio itself if nothing has to be applied.
+     * @throws IOException
+     */
+    public static PcmAudio apply(PcmAudio audio, float gain, String postEffects) throws IOException
+    {
+        if (isIdentity(gain, postEffects))
+        {
+            return audio;
+        }
+
+        PcmAudio processed = audio;
+
+        if (postEffects != null)
+        {
+            processed = PcmAudio.read(applyEffects(audio.toAudioInputStream(), postEffects));
+        }
+
+        if (gain != 1.0f)
+        {
+            ByteBuffer data = processed.getData();
+            byte[] samples = new byte[data.remaining()];
+            data.get(samples);
+
+            if (!applyGain(samples, 0, samples.length, processed.getFormat(), gain))
+            {
+                return PcmAudio.read(applyEffects(processed.toAudioInputStream(), volumeEffect(gain)));
+            }
+
+            processed = new PcmAudio(processed.getFormat(), ByteBuffer.wrap(samples));
+        }
+
+        return processed;
+    }
+
+    /**
+     * Chains the given effects onto the given stream. The samples are processed lazily while the returned stream is
+     * read.
+     *
+     * @param audio
+     * @param postEffects Effects as returned by {@link #postEffects(String)}.
+     * @return The given stream itself if there are no effects.
+     */
+    public static AudioInputStream applyEffects(AudioInputStream audio, String postEffects)
+    {
+        if (postEffects == null)
+        {
+            return audio;
+        }
+
+        DoubleDataSource source = new AudioDoubleDataSource(audio);
+
+        for (String effectString : postEffects.split("\\+"))
+        {
+            AudioEffect effect = AudioEffects.getEffect(effectName(effectString));
+
+            if (effect != null)
+            {
+                effect.setParams(effectParams(effectString));
+                source = effect.apply(source);
+            }
+        }
+
+        return new DDSAudioInputStream(source, audio.getFormat());
+    }
+
+    /**
+     * Multiplies the 16 bit signed samples in the given range with the given gain, clipping at the sample limits.
+     * The range has to contain whole frames.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param format
+     * @param gain
+     * @return false if the format is not 16 bit signed PCM, in which case the data is left unchanged.
+     */
+    public static boolean applyGain(byte[] data, int offset, int length, AudioFormat format, float gain)
+    {
+        if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) || format.getSampleSizeInBits() != 16)
+        {
+            return false;
+        }
+
+        if (gain == 1.0f)
+        {
+            return true;
+        }
+
+        boolean bigEndian = format.isBigEndian();
+        int end = offset + length - 1;
+
+        for (int i = offset; i < end; i += 2)
+        {
+            int high = bigEndian ? i : i + 1;
+            int low = bigEndian ? i + 1 : i;
+            int sample = (short)((data[high] << 8) | (data[low] & 0xFF));
+            int scaled = Math.round(sample * gain);
+
+            if (scaled > Short.MAX_VALUE)
+            {
+                scaled = Short.MAX_VALUE;
+            }
+            else if (scaled < Short.MIN_VALUE)
+            {
+                scaled = Short.MIN_VALUE;
+            }
+
+            data[high] = (byte)(scaled >> 8);
+            data[low] = (byte)scaled;
+        }
+
+        return true;
+    }
+
+    private static String volumeEffect(float gain)
+    {
+        return "Volume(amount:" + gain + ")";
+    }
+}
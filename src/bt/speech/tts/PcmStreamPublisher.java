@@ -0,0 +1,176 @@
+package bt.speech.tts;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sound.sampled.AudioFormat;
+
+import marytts.exceptions.SynthesisException;
+
+/**
+ * Publishes the PCM samples of a text in small chunks, sentence by sentence.
+ *
+ * <p>MARY only returns the audio of a request once it is completely synthesized, so the text is split into sentences
+ * and each sentence is published in chunks as soon as its synthesis is done, while the following sentences are still
+ * to come. The first chunk therefore arrives after the first sentence instead of after the whole text. Synthesis
+ * starts when the first subscriber subscribes; later subscribers miss the chunks that were published before. The
+ * sentences are synthesized by the worker processes while those are {@link TextToSpeech#getWorkerPool() enabled}.
+ * Backpressure is honored: once a subscriber's buffer is full, synthesis waits until it requests more.</p>
+ *
+ * @author &#8904
+ */
+public class PcmStreamPublisher implements Flow.Publisher<ByteBuffer>
+{
+    private final List<String> sentences;
+    private final SynthesisOptions options;
+    private volatile AudioFormat format;
+    private final int chunkSize;
+    private final Executor executor;
+    private final SubmissionPublisher<ByteBuffer> publisher;
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /**
+     * @param sentences      The texts to synthesize in order.
+     * @param options
+     * @param format         The format of the published samples if it is known up front, otherwise null to take it
+     *                       from the first synthesized sentence.
+     * @param chunkSize      The maximum size of a published chunk in bytes.
+     * @param executor       The executor that runs the synthesis.
+     * @param bufferCapacity The maximum number of chunks buffered per subscriber.
+     */
+    public PcmStreamPublisher(List<String> sentences, SynthesisOptions options, AudioFormat format, int chunkSize, Executor executor, int bufferCapacity)
+    {
+        this.sentences = sentences;
+        this.options = options;
+        this.format = format;
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+        this.publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), bufferCapacity);
+    }
+
+    /**
+     * @return The format of the published samples. Unless it was given up front it is null until the first sentence
+     *         is synthesized, which is before the first chunk is delivered.
+     */
+    public AudioFormat getFormat()
+    {
+        return this.format;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber)
+    {
+        this.publisher.subscribe(subscriber);
+
+        if (this.started.compareAndSet(false, true))
+        {
+            try
+            {
+                this.executor.execute(this::produce);
+            }
+            catch (RuntimeException e)
+            {
+                this.publisher.closeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return false if all subscribers cancelled.
+     */
+    private boolean publishSentence(String sentence) throws Exception
+    {
+        return publish(PcmEffects.apply(synthesize(sentence), this.options.getGain(), this.options.getPostEffects()));
+    }
+
+    /**
+     * Synthesizes the given sentence. The admission permit and the MARY request are released as soon as the audio is
+     * read, so that a slow subscriber does not hold up admission or the shutdown of MARY for everyone else.
+     */
+    private PcmAudio synthesize(String sentence) throws Exception
+    {
+        SynthesisWorkerPool workers = TextToSpeech.getWorkerPool();
+
+        if (workers != null)
+        {
+            // the workers admit requests against their own memory
+            return workers.synthesizeNow(sentence, this.options);
+        }
+
+        TextToSpeech.awaitMaryStarted();
+        VoiceLoader.ensureLoaded(this.options.getVoice());
+        BtMary.beginRequest();
+
+        try (AdmissionController.Permit permit = TextToSpeech.getAdmissionController().admit(sentence, this.options))
+        {
+            return TextToSpeech.getEnginePool().execute(this.options, engine ->
+            {
+                try
+                {
+                    return PcmAudio.read(engine.generateAudio(sentence));
+                }
+                catch (IOException e)
+                {
+                    throw new SynthesisException("Failed to read synthesized audio", e);
+                }
+            });
+        }
+        finally
+        {
+            BtMary.endRequest();
+        }
+    }
+
+    private boolean publish(PcmAudio audio)
+    {
+        ByteBuffer data = audio.getData();
+        // set before the first chunk is submitted, so subscribers see it when the chunk arrives
+        this.format = audio.getFormat();
+        int frameSize = Math.max(1, audio.getFormat().getFrameSize());
+        int chunkSize = Math.max(frameSize, this.chunkSize / frameSize * frameSize);
+
+        while (data.hasRemaining())
+        {
+            if (!this.publisher.hasSubscribers())
+            {
+                // all subscribers cancelled
+                this.publisher.close();
+                return false;
+            }
+
+            // the chunks are views of the sentence, so no samples are copied
+            ByteBuffer chunk = data.slice();
+            chunk.limit(Math.min(chunkSize, chunk.remaining()));
+            data.position(data.position() + chunk.remaining());
+            this.publisher.submit(chunk);
+        }
+
+        return true;
+    }
+
+    private void produce()
+    {
+        try
+        {
+            for (String sentence : this.sentences)
+            {
+                if (!publishSentence(sentence))
+                {
+                    return;
+                }
+            }
+
+            this.publisher.close();
+        }
+        catch (Exception e)
+        {
+            this.publisher.closeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,617 @@
+package bt.speech.tts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Disk backed cache of synthesized audio that survives restarts.
+ *
+ * <p>The samples of all entries are appended to a single segment file, the keys and locations are appended to an
+ * index file. Reads go through a {@link MappedByteBuffer} of the segment, so cached audio is served straight from
+ * the page cache without copying it onto the heap.</p>
+ *
+ * <p>Both files carry the MARY version they were written with. If it does not match
+ * {@link BtMaryRuntimeUtils#getMaryVersion()} the whole cache is discarded, since voice data and signal processing
+ * may have changed. Entries are also keyed by the {@link AudioFormat} their voice produced. Lookups only find entries
+ * in the format the voice produced last, and once a voice produces a different format its older entries are dropped,
+ * so a changed voice database does not keep serving stale audio. The formats are taken from the stored audio, so the
+ * cache does not need the voices to be loaded.</p>
+ *
+ * <p>If the segment grows beyond the configured size, the oldest entries are dropped and the files are compacted.</p>
+ *
+ * @author &#8904
+ */
+public class PersistentAudioCache implements Closeable
+{
+    private static final int MAGIC = 0x42545343;
+    private static final int FILE_VERSION = 1;
+    private static final String SEGMENT_FILE = "audio.seg";
+    private static final String INDEX_FILE = "audio.idx";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final String maryVersion;
+
+    /** Entries in insertion order, which is the order in which they are dropped when the cache is full. */
+    private final LinkedHashMap<DiskKey, Entry> entries = new LinkedHashMap<>();
+
+    /** The format signature each voice produced last. */
+    private final Map<String, String> voiceFormats = new HashMap<>();
+    private FileChannel segment;
+    private DataOutputStream index;
+    private MappedByteBuffer mapped;
+    private long segmentSize;
+    private long liveBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    /**
+     * Opens or creates the cache in the given directory.
+     *
+     * @param directory
+     * @param maxBytes  The maximum size of the segment file. Sizes above 2 GB are capped, since the segment is
+     *                  mapped as a whole.
+     * @throws IOException
+     */
+    public PersistentAudioCache(Path directory, long maxBytes) throws IOException
+    {
+        this.directory = directory;
+        this.maxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+        this.maryVersion = BtMaryRuntimeUtils.getMaryVersion();
+
+        Files.createDirectories(directory);
+
+        if (!load())
+        {
+            Files.deleteIfExists(segmentPath());
+            Files.deleteIfExists(indexPath());
+            this.entries.clear();
+            this.voiceFormats.clear();
+            this.liveBytes = 0;
+        }
+
+        open();
+    }
+
+    /**
+     * @param key
+     * @return The cached audio, backed by the mapped segment, or null.
+     * @throws IOException
+     */
+    public synchronized PcmAudio get(AudioCacheKey key) throws IOException
+    {
+        String format = this.voiceFormats.get(key.getVoice());
+        Entry entry = format == null ? null : this.entries.get(new DiskKey(key, format));
+
+        if (entry == null)
+        {
+            this.misses.incrementAndGet();
+            return null;
+        }
+
+        this.hits.incrementAndGet();
+        return new PcmAudio(entry.format, slice(entry.offset, entry.length));
+    }
+
+    /**
+     * Appends the given audio to the segment. If its voice produced a different format before, the entries of the
+     * old format are dropped.
+     *
+     * @param key
+     * @param audio
+     * @throws IOException
+     */
+    public synchronized void put(AudioCacheKey key, PcmAudio audio) throws IOException
+    {
+        if (audio.size() > this.maxBytes)
+        {
+            return;
+        }
+
+        DiskKey diskKey = new DiskKey(key, formatSignature(audio.getFormat()));
+        updateVoiceFormat(diskKey);
+        ByteBuffer data = audio.getData();
+        long offset = this.segmentSize;
+
+        while (data.hasRemaining())
+        {
+            this.segmentSize += this.segment.write(data, this.segmentSize);
+        }
+
+        Entry entry = new Entry(audio.getFormat(), offset, audio.size());
+        writeRecord(this.index, diskKey, entry);
+        this.index.flush();
+
+        Entry old = this.entries.remove(diskKey);
+
+        if (old != null)
+        {
+            this.liveBytes -= old.length;
+        }
+
+        this.entries.put(diskKey, entry);
+        this.liveBytes += entry.length;
+
+        if (this.segmentSize > this.maxBytes)
+        {
+            Iterator<Entry> it = this.entries.values().iterator();
+
+            while (this.liveBytes > this.maxBytes / 2 && it.hasNext())
+            {
+                this.liveBytes -= it.next().length;
+                it.remove();
+            }
+
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites segment and index so that they only contain the live entries.
+     *
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException
+    {
+        Path tmpSegment = this.directory.resolve(SEGMENT_FILE + ".tmp");
+        Path tmpIndex = this.directory.resolve(INDEX_FILE + ".tmp");
+        LinkedHashMap<DiskKey, Entry> compacted = new LinkedHashMap<>();
+        long offset = 0;
+
+        try (FileChannel out = FileChannel.open(tmpSegment, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpIndex))))
+        {
+            writeHeader(idx);
+
+            for (Map.Entry<DiskKey, Entry> e : this.entries.entrySet())
+            {
+                Entry old = e.getValue();
+                ByteBuffer data = slice(old.offset, old.length);
+                Entry moved = new Entry(old.format, offset, old.length);
+
+                while (data.hasRemaining())
+                {
+                    offset += out.write(data, offset);
+                }
+
+                writeRecord(idx, e.getKey(), moved);
+                compacted.put(e.getKey(), moved);
+            }
+
+            out.force(false);
+        }
+
+        closeFiles();
+        Files.move(tmpSegment, segmentPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tmpIndex, indexPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        this.entries.clear();
+        this.entries.putAll(compacted);
+        this.liveBytes = offset;
+        this.compactions.incrementAndGet();
+        open();
+    }
+
+    /**
+     * Removes all entries and deletes the files.
+     *
+     * @throws IOException
+     */
+    public synchronized void clear() throws IOException
+    {
+        closeFiles();
+        Files.deleteIfExists(segmentPath());
+        Files.deleteIfExists(indexPath());
+        this.entries.clear();
+        this.voiceFormats.clear();
+        this.liveBytes = 0;
+        open();
+    }
+
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    public synchronized long getSegmentSize()
+    {
+        return this.segmentSize;
+    }
+
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+
+    public long getCompactions()
+    {
+        return this.compactions.get();
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        closeFiles();
+    }
+
+    private Path segmentPath()
+    {
+        return this.directory.resolve(SEGMENT_FILE);
+    }
+
+    private Path indexPath()
+    {
+        return this.directory.resolve(INDEX_FILE);
+    }
+
+    private void open() throws IOException
+    {
+        boolean newIndex = !Files.exists(indexPath());
+
+        this.segment = FileChannel.open(segmentPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.segmentSize = this.segment.size();
+        this.mapped = null;
+        this.index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+
+        if (newIndex)
+        {
+            writeHeader(this.index);
+            this.index.flush();
+        }
+    }
+
+    private void closeFiles() throws IOException
+    {
+        if (this.index != null)
+        {
+            this.index.close();
+            this.index = null;
+        }
+
+        if (this.segment != null)
+        {
+            this.segment.close();
+            this.segment = null;
+        }
+
+        this.mapped = null;
+    }
+
+    /**
+     * Reads the index into memory.
+     *
+     * @return false if the existing files can not be used.
+     * @throws IOException
+     */
+    private boolean load() throws IOException
+    {
+        if (!Files.exists(indexPath()) || !Files.exists(segmentPath()))
+        {
+            return false;
+        }
+
+        long available = Files.size(segmentPath());
+        long validIndexLength;
+
+        try (InputStream in = Files.newInputStream(indexPath());
+             CountingInputStream counting = new CountingInputStream(new BufferedInputStream(in));
+             DataInputStream idx = new DataInputStream(counting))
+        {
+            if (idx.readInt() != MAGIC || idx.readInt() != FILE_VERSION || !this.maryVersion.equals(idx.readUTF()))
+            {
+                return false;
+            }
+
+            validIndexLength = counting.count;
+
+            while (true)
+            {
+                DiskKey key;
+                Entry entry;
+
+                try
+                {
+                    key = readKey(idx);
+                    entry = readEntry(idx);
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+
+                if (entry.offset + entry.length > available)
+                {
+                    // written partially before a crash
+                    break;
+                }
+
+                Entry old = this.entries.remove(key);
+
+                if (old != null)
+                {
+                    this.liveBytes -= old.length;
+                }
+
+                this.entries.put(key, entry);
+                this.liveBytes += entry.length;
+                this.voiceFormats.put(key.key.getVoice(), key.format);
+                validIndexLength = counting.count;
+            }
+        }
+        catch (EOFException e)
+        {
+            return false;
+        }
+
+        // entries of formats their voices no longer produce stay in the files until the next compaction
+        Iterator<Map.Entry<DiskKey, Entry>> it = this.entries.entrySet().iterator();
+
+        while (it.hasNext())
+        {
+            Map.Entry<DiskKey, Entry> e = it.next();
+
+            if (!Objects.equals(e.getKey().format, this.voiceFormats.get(e.getKey().key.getVoice())))
+            {
+                this.liveBytes -= e.getValue().length;
+                it.remove();
+            }
+        }
+
+        if (validIndexLength < Files.size(indexPath()))
+        {
+            try (FileChannel idx = FileChannel.open(indexPath(), StandardOpenOption.WRITE))
+            {
+                idx.truncate(validIndexLength);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Records the format of the given key as the current one of its voice and drops the entries of the voice in other
+     * formats.
+     */
+    private void updateVoiceFormat(DiskKey key)
+    {
+        String voice = key.key.getVoice();
+        String previous = this.voiceFormats.put(voice, key.format);
+
+        if (previous == null || previous.equals(key.format))
+        {
+            return;
+        }
+
+        Iterator<Map.Entry<DiskKey, Entry>> it = this.entries.entrySet().iterator();
+
+        while (it.hasNext())
+        {
+            Map.Entry<DiskKey, Entry> e = it.next();
+
+            if (Objects.equals(voice, e.getKey().key.getVoice()) && !key.format.equals(e.getKey().format))
+            {
+                this.liveBytes -= e.getValue().length;
+                it.remove();
+            }
+        }
+    }
+
+    private ByteBuffer slice(long offset, int length) throws IOException
+    {
+        if (this.mapped == null || offset + length > this.mapped.capacity())
+        {
+            this.mapped = this.segment.map(FileChannel.MapMode.READ_ONLY, 0, this.segmentSize);
+        }
+
+        ByteBuffer view = this.mapped.duplicate();
+        view.position((int)offset);
+        view.limit((int)(offset + length));
+        return view.slice();
+    }
+
+    private void writeHeader(DataOutputStream out) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeUTF(this.maryVersion);
+    }
+
+    private static void writeRecord(DataOutputStream out, DiskKey key, Entry entry) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + key.key.getText().length() * 2);
+        DataOutputStream record = new DataOutputStream(bytes);
+
+        writeString(record, key.key.getText());
+        writeString(record, key.key.getVoice());
+        writeString(record, key.key.getEffects());
+        writeString(record, key.key.getStyle());
+        writeString(record, key.format);
+
+        AudioFormat format = entry.format;
+        record.writeUTF(format.getEncoding().toString());
+        record.writeFloat(format.getSampleRate());
+        record.writeInt(format.getSampleSizeInBits());
+        record.writeInt(format.getChannels());
+        record.writeInt(format.getFrameSize());
+        record.writeFloat(format.getFrameRate());
+        record.writeBoolean(format.isBigEndian());
+        record.writeLong(entry.offset);
+        record.writeInt(entry.length);
+
+        // written as a whole so that a crash can only leave a truncated last record
+        bytes.writeTo(out);
+    }
+
+    private static DiskKey readKey(DataInputStream in) throws IOException
+    {
+        String text = readString(in);
+        String voice = readString(in);
+        String effects = readString(in);
+        String style = readString(in);
+        String format = readString(in);
+        return new DiskKey(new AudioCacheKey(text, voice, effects, style), format);
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException
+    {
+        AudioFormat format = new AudioFormat(new AudioFormat.Encoding(in.readUTF()),
+                                             in.readFloat(),
+                                             in.readInt(),
+                                             in.readInt(),
+                                             in.readInt(),
+                                             in.readFloat(),
+                                             in.readBoolean());
+        return new Entry(format, in.readLong(), in.readInt());
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        if (s == null)
+        {
+            out.writeInt(-1);
+        }
+        else
+        {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+
+        if (length < 0)
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String formatSignature(AudioFormat format)
+    {
+        return format.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PersistentAudioCache[directory=" + this.directory + ", entries=" + size() + ", bytes=" + getSegmentSize() + "/" + this.maxBytes
+                + ", hits=" + getHits() + ", misses=" + getMisses() + ", compactions=" + getCompactions() + "]";
+    }
+
+    private static final class DiskKey
+    {
+        private final AudioCacheKey key;
+        private final String format;
+
+        private DiskKey(AudioCacheKey key, String format)
+        {
+            this.key = key;
+            this.format = format;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof DiskKey))
+            {
+                return false;
+            }
+
+            DiskKey other = (DiskKey)o;
+            return this.key.equals(other.key) && Objects.equals(this.format, other.format);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * this.key.hashCode() + Objects.hashCode(this.format);
+        }
+    }
+
+    private static final class Entry
+    {
+        private final AudioFormat format;
+        private final long offset;
+        private final int length;
+
+        private Entry(AudioFormat format, long offset, int length)
+        {
+            this.format = format;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream
+    {
+        private long count;
+
+        private CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+
+            if (b >= 0)
+            {
+                this.count++;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = super.read(b, off, len);
+
+            if (n > 0)
+            {
+                this.count += n;
+            }
+
+            return n;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package bt.speech.tts;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * Supplies a list of text chunks for playback while synthesizing the following chunks in the background.
+ *
+ * <p>Up to {@code lookAhead} chunks are synthesized ahead of the one that is currently playing, so the first audio
+ * starts as soon as the first chunk is ready instead of after the whole text has been synthesized.</p>
+ *
+ * @author &#8904
+ */
+public class PipelinedPlayback implements PlaybackSource
+{
+    private final List<String> chunks;
+    private final SynthesisOptions options;
+    private final int lookAhead;
+    private final Deque<CompletableFuture<AudioInputStream>> pending = new ArrayDeque<>();
+    private int nextToSynthesize;
+    private int nextToPlay;
+    private int played;
+    private int failed;
+    private long start = -1;
+    private long firstAudio = -1;
+    private long end = -1;
+
+    /**
+     * @param chunks    The texts to play in order, i.e. as created by {@link SentenceSplitter}.
+     * @param options
+     * @param lookAhead The number of chunks to synthesize ahead of the one that is playing.
+     */
+    public PipelinedPlayback(List<String> chunks, SynthesisOptions options, int lookAhead)
+    {
+        if (lookAhead < 0)
+        {
+            throw new IllegalArgumentException("lookAhead must not be negative");
+        }
+
+        this.chunks = chunks;
+        this.options = options;
+        this.lookAhead = lookAhead;
+    }
+
+    @Override
+    public synchronized AudioInputStream next() throws InterruptedException
+    {
+        if (this.start < 0)
+        {
+            this.start = System.nanoTime();
+        }
+
+        while (this.nextToPlay < this.chunks.size())
+        {
+            while (this.nextToSynthesize < this.chunks.size() && this.pending.size() <= this.lookAhead)
+            {
+                this.pending.add(TextToSpeech.synthesizeAsync(this.chunks.get(this.nextToSynthesize++), this.options));
+            }
+
+            this.nextToPlay++;
+            AudioInputStream audio;
+
+            try
+            {
+                audio = this.pending.poll().get();
+            }
+            catch (ExecutionException e)
+            {
+                e.getCause().printStackTrace();
+                this.failed++;
+                continue;
+            }
+
+            if (this.firstAudio < 0)
+            {
+                this.firstAudio = System.nanoTime() - this.start;
+            }
+
+            this.played++;
+            return audio;
+        }
+
+        return null;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        for (CompletableFuture<AudioInputStream> future : this.pending)
+        {
+            future.cancel(false);
+        }
+
+        this.pending.clear();
+
+        if (this.end < 0)
+        {
+            this.end = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return The timings of this playback. Only complete once the playback has finished.
+     */
+    public synchronized Report getReport()
+    {
+        long total = this.start < 0 || this.end < 0 ? -1 : (this.end - this.start) / 1000000;
+        return new Report(this.chunks.size(), this.played, this.failed, this.firstAudio < 0 ? -1 : this.firstAudio / 1000000, total);
+    }
+
+    /**
+     * Timing information of one pipelined playback.
+     */
+    public static final class Report
+    {
+        private final int chunkCount;
+        private final int playedCount;
+        private final int failedCount;
+        private final long timeToFirstAudio;
+        private final long totalTime;
+
+        private Report(int chunkCount, int playedCount, int failedCount, long timeToFirstAudio, long totalTime)
+        {
+            this.chunkCount = chunkCount;
+            this.playedCount = playedCount;
+            this.failedCount = failedCount;
+            this.timeToFirstAudio = timeToFirstAudio;
+            this.totalTime = totalTime;
+        }
+
+        public int getChunkCount()
+        {
+            return this.chunkCount;
+        }
+
+        /**
+         * @return The number of chunks that were handed to the player.
+         */
+        public int getPlayedCount()
+        {
+            return this.playedCount;
+        }
+
+        public int getFailedCount()
+        {
+            return this.failedCount;
+        }
+
+        /**
+         * @return The milliseconds between the start of the playback and the start of the first audio, or -1 if no
+         *         chunk could be synthesized.
+         */
+        public long getTimeToFirstAudio()
+        {
+            return this.timeToFirstAudio;
+        }
+
+        /**
+         * @return The milliseconds until the playback finished.
+         */
+        public long getTotalTime()
+        {
+            return this.totalTime;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "PipelinedPlayback.Report[chunks=" + this.chunkCount + ", played=" + this.playedCount + ", failed=" + this.failedCount
+                    + ", timeToFirstAudio=" + this.timeToFirstAudio + " ms, total=" + this.totalTime + " ms]";
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package bt.speech.tts;
+
+/**
+ * Order in which queued utterances are played by the {@link PlaybackScheduler}. Utterances of the same priority are
+ * played in the order in which they were submitted.
+ *
+ * @author &#8904
+ */
+public enum PlaybackPriority
+{
+    URGENT,
+    NORMAL,
+    BULK
+}
@@ -0,0 +1,355 @@
+package bt.speech.tts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * Plays queued utterances one after another on a single dedicated thread.
+ *
+ * <p>Utterances are ordered by their {@link PlaybackPriority} and then by submission order. The queue is bounded;
+ * submissions beyond its capacity fail with a {@link RejectedExecutionException}. The audio is played through an
+ * {@link AudioMixer}, so that other streams can be mixed over the utterances.</p>
+ *
+ * @author &#8904
+ */
+public class PlaybackScheduler
+{
+    private final int capacity;
+    private final AudioMixer mixer;
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private final List<AudioMixer.Track> activeTracks = new ArrayList<>();
+    private final Thread thread;
+    private long sequence;
+    private Entry current;
+    private volatile boolean waitForCompletion = true;
+
+    private final AtomicLong played = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    /**
+     * @param capacity The maximum number of utterances that may wait for playback.
+     * @param mixer    The mixer that plays the utterances.
+     */
+    public PlaybackScheduler(int capacity, AudioMixer mixer)
+    {
+        this.capacity = capacity;
+        this.mixer = mixer;
+        this.thread = new Thread(this::run, "TextToSpeech-playback");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @param waitForCompletion If false, the next utterance starts right after the current one was started, so that
+     *                          they overlap.
+     */
+    public void setWaitForCompletion(boolean waitForCompletion)
+    {
+        this.waitForCompletion = waitForCompletion;
+    }
+
+    /**
+     * Queues the given audio.
+     *
+     * @param audio
+     * @param priority
+     * @return A future like the one of {@link #submit(PlaybackSource, PlaybackPriority)}. It fails right away if
+     *         there is no audio, i.e. because its synthesis failed.
+     */
+    public CompletableFuture<Void> submit(AudioInputStream audio, PlaybackPriority priority)
+    {
+        if (audio == null)
+        {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("No audio to play"));
+        }
+
+        return submit(PlaybackSource.of(audio), priority);
+    }
+
+    /**
+     * Queues the given utterance.
+     *
+     * @param source
+     * @param priority
+     * @return A future that completes once the utterance has been played or skipped. It is cancelled if the
+     *         utterance is flushed from the queue.
+     */
+    public CompletableFuture<Void> submit(PlaybackSource source, PlaybackPriority priority)
+    {
+        Entry entry;
+
+        synchronized (this)
+        {
+            if (this.queue.size() >= this.capacity)
+            {
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Playback queue is full"));
+            }
+
+            entry = new Entry(source, priority, this.sequence++);
+            this.queue.add(entry);
+            notifyAll();
+        }
+
+        return entry.future;
+    }
+
+    /**
+     * Stops the utterance that is currently playing and continues with the next one.
+     */
+    public synchronized void skip()
+    {
+        if (this.current != null)
+        {
+            this.current.skipped = true;
+        }
+
+        for (AudioMixer.Track track : this.activeTracks)
+        {
+            track.stop();
+        }
+    }
+
+    /**
+     * Removes all waiting utterances from the queue.
+     *
+     * @return The number of removed utterances.
+     */
+    public int flush()
+    {
+        List<Entry> removed;
+
+        synchronized (this)
+        {
+            removed = new ArrayList<>(this.queue);
+            this.queue.clear();
+        }
+
+        for (Entry entry : removed)
+        {
+            entry.source.close();
+            entry.future.cancel(false);
+        }
+
+        this.flushed.addAndGet(removed.size());
+        return removed.size();
+    }
+
+    /**
+     * Stops the current utterance and removes all waiting ones.
+     */
+    public void interrupt()
+    {
+        flush();
+        skip();
+    }
+
+    /**
+     * @return The number of utterances waiting for playback.
+     */
+    public synchronized int getBacklog()
+    {
+        return this.queue.size();
+    }
+
+    public int getCapacity()
+    {
+        return this.capacity;
+    }
+
+    public long getPlayedCount()
+    {
+        return this.played.get();
+    }
+
+    public long getSkippedCount()
+    {
+        return this.skipped.get();
+    }
+
+    public long getFlushedCount()
+    {
+        return this.flushed.get();
+    }
+
+    /**
+     * @return The average milliseconds an utterance waited in the queue before it started playing.
+     */
+    public double getAverageWaitTime()
+    {
+        long count = this.played.get() + this.skipped.get();
+        return count == 0 ? 0 : this.totalWaitTime.get() / 1000000.0 / count;
+    }
+
+    /**
+     * @return The longest milliseconds an utterance waited in the queue before it started playing.
+     */
+    public long getMaxWaitTime()
+    {
+        return this.maxWaitTime.get() / 1000000;
+    }
+
+    private void run()
+    {
+        while (true)
+        {
+            Entry entry;
+
+            try
+            {
+                entry = take();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+
+            long waited = System.nanoTime() - entry.submitted;
+            this.totalWaitTime.addAndGet(waited);
+            this.maxWaitTime.accumulateAndGet(waited, Math::max);
+
+            Throwable failure = null;
+
+            // everything is caught, also errors of the audio system, so that this thread keeps serving the queue
+            try
+            {
+                play(entry);
+            }
+            catch (Throwable e)
+            {
+                failure = e;
+            }
+            finally
+            {
+                try
+                {
+                    entry.source.close();
+                }
+                catch (Throwable e)
+                {
+                    if (failure == null)
+                    {
+                        failure = e;
+                    }
+                }
+
+                synchronized (this)
+                {
+                    this.current = null;
+                }
+
+                if (entry.skipped)
+                {
+                    this.skipped.incrementAndGet();
+                }
+                else
+                {
+                    this.played.incrementAndGet();
+                }
+            }
+
+            // completed only after the source was closed, since dependent stages run right here and read its state
+            if (failure == null)
+            {
+                entry.future.complete(null);
+            }
+            else
+            {
+                entry.future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private synchronized Entry take() throws InterruptedException
+    {
+        while (this.queue.isEmpty())
+        {
+            wait();
+        }
+
+        this.current = this.queue.poll();
+        return this.current;
+    }
+
+    private void play(Entry entry) throws Exception
+    {
+        AudioMixer.Track previous = null;
+        AudioInputStream audio;
+
+        while (!entry.skipped && (audio = entry.source.next()) != null)
+        {
+            if (previous != null)
+            {
+                finish(previous);
+            }
+
+            AudioMixer.Track track;
+
+            synchronized (this)
+            {
+                if (entry.skipped)
+                {
+                    break;
+                }
+
+                this.activeTracks.removeIf(t -> t.getCompletion().isDone());
+                track = this.mixer.play(audio, 1.0f);
+                this.activeTracks.add(track);
+            }
+
+            previous = track;
+        }
+
+        if (previous != null && this.waitForCompletion)
+        {
+            finish(previous);
+        }
+    }
+
+    private void finish(AudioMixer.Track track) throws Exception
+    {
+        try
+        {
+            track.getCompletion().get();
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                this.activeTracks.remove(track);
+            }
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry>
+    {
+        private final PlaybackSource source;
+        private final PlaybackPriority priority;
+        private final long sequence;
+        private final long submitted = System.nanoTime();
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private volatile boolean skipped;
+
+        private Entry(PlaybackSource source, PlaybackPriority priority, long sequence)
+        {
+            this.source = source;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry o)
+        {
+            int result = this.priority.compareTo(o.priority);
+            return result != 0 ? result : Long.compare(this.sequence, o.sequence);
+        }
+    }
+}
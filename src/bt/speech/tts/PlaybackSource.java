@@ -0,0 +1,46 @@
+package bt.speech.tts;
+
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * Supplies the audio of one queued utterance to the {@link PlaybackScheduler}, possibly in several consecutive parts.
+ *
+ * @author &#8904
+ */
+public interface PlaybackSource
+{
+    /**
+     * Blocks until the next part of the utterance is available.
+     *
+     * @return The next part or null if the utterance is complete.
+     * @throws Exception
+     */
+    AudioInputStream next() throws Exception;
+
+    /**
+     * Called once the utterance has finished playing or was skipped.
+     */
+    default void close()
+    {
+    }
+
+    /**
+     * @param audio
+     * @return A source that supplies the given stream once.
+     */
+    static PlaybackSource of(AudioInputStream audio)
+    {
+        return new PlaybackSource()
+        {
+            private AudioInputStream remaining = audio;
+
+            @Override
+            public AudioInputStream next()
+            {
+                AudioInputStream next = this.remaining;
+                this.remaining = null;
+                return next;
+            }
+        };
+    }
+}
@@ -0,0 +1,84 @@
+package bt.speech.tts;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits text into sentences, and overly long sentences further into phrases, so that they can be synthesized one
+ * after another.
+ *
+ * @author &#8904
+ */
+public final class SentenceSplitter
+{
+    private static final String PHRASE_BREAKS = ",;:";
+
+    private SentenceSplitter()
+    {
+    }
+
+    /**
+     * @param text
+     * @param locale
+     * @param maxChunkLength Sentences longer than this are split at phrase boundaries or, if there are none, at
+     *                       whitespace.
+     * @return The non empty chunks in order.
+     */
+    public static List<String> split(String text, Locale locale, int maxChunkLength)
+    {
+        List<String> chunks = new ArrayList<>();
+        BreakIterator sentences = BreakIterator.getSentenceInstance(locale);
+        sentences.setText(text);
+
+        int start = sentences.first();
+
+        for (int end = sentences.next(); end != BreakIterator.DONE; start = end, end = sentences.next())
+        {
+            splitSentence(text.substring(start, end).trim(), maxChunkLength, chunks);
+        }
+
+        return chunks;
+    }
+
+    private static void splitSentence(String sentence, int maxChunkLength, List<String> chunks)
+    {
+        while (sentence.length() > maxChunkLength)
+        {
+            // the break is kept with the chunk, so it may be at most at the last index of a chunk
+            int cut = lastBreak(sentence, maxChunkLength - 1, PHRASE_BREAKS);
+
+            if (cut < 0)
+            {
+                cut = sentence.lastIndexOf(' ', maxChunkLength);
+            }
+
+            if (cut <= 0)
+            {
+                cut = maxChunkLength - 1;
+            }
+
+            chunks.add(sentence.substring(0, cut + 1).trim());
+            sentence = sentence.substring(cut + 1).trim();
+        }
+
+        if (!sentence.isEmpty())
+        {
+            chunks.add(sentence);
+        }
+    }
+
+    private static int lastBreak(String s, int maxIndex, String breakChars)
+    {
+        for (int i = Math.min(maxIndex, s.length() - 1); i > 0; i--)
+        {
+            if (breakChars.indexOf(s.charAt(i)) >= 0)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
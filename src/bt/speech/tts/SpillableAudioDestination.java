@@ -0,0 +1,81 @@
+package bt.speech.tts;
+
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+import marytts.util.data.audio.AudioDestination;
+
+/**
+ * An {@link AudioDestination} that keeps its audio in a {@link SpillableAudioStore} instead of deciding between
+ * RAM and file up front. The streams it creates keep the audio until they are closed, even after the destination was
+ * closed.
+ *
+ * @author &#8904
+ */
+public class SpillableAudioDestination extends AudioDestination implements AutoCloseable
+{
+    private final SpillableAudioStore store = new SpillableAudioStore();
+
+    public SpillableAudioDestination() throws IOException
+    {
+        super(true);
+    }
+
+    @Override
+    public boolean isInRam()
+    {
+        return !this.store.isSpilled();
+    }
+
+    @Override
+    public boolean isFile()
+    {
+        return this.store.isSpilled();
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException
+    {
+        this.store.write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        this.store.write(b, off, len);
+    }
+
+    @Override
+    public void append(AudioInputStream ais) throws IOException
+    {
+        byte[] buffer = new byte[SpillableAudioStore.CHUNK_SIZE];
+
+        for (int read = ais.read(buffer); read != -1; read = ais.read(buffer))
+        {
+            this.store.write(buffer, 0, read);
+        }
+    }
+
+    @Override
+    public AudioInputStream convertToAudioInputStream(AudioFormat audioFormat) throws IOException
+    {
+        return convertToAudioInputStream(audioFormat, this.store.size() / audioFormat.getFrameSize());
+    }
+
+    @Override
+    public AudioInputStream convertToAudioInputStream(AudioFormat audioFormat, long lengthInFrames) throws IOException
+    {
+        return new AudioInputStream(this.store.toInputStream(), audioFormat, lengthInFrames);
+    }
+
+    /**
+     * Releases the audio once all streams of this destination are closed as well.
+     */
+    @Override
+    public void close()
+    {
+        this.store.close();
+    }
+}
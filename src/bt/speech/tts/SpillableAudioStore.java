@@ -0,0 +1,446 @@
+package bt.speech.tts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores the audio of one synthesis in pooled direct {@link ByteBuffer}s and spills it to a memory mapped temporary
+ * file once it grows past its memory budget.
+ *
+ * <p>Every store may hold at most {@link #getRequestBudget()} bytes in memory, and all stores together at most
+ * {@link #getGlobalBudget()} bytes. Exceeding either, or a {@link BtMaryRuntimeUtils#lowMemoryCondition() low memory
+ * condition}, moves the content to a temporary file.</p>
+ *
+ * <p>A store is written first and read afterwards: once a stream was created with {@link #toInputStream()} or the
+ * store was closed, further writes fail. The buffers go back to the pool and the file is deleted once the store and
+ * all of its streams are closed, so closing one stream does not affect the others. Stores that are never closed give
+ * their memory back once they and their streams become unreachable.</p>
+ *
+ * <p>The pool keeps at most {@link #getPoolCapacity()} free buffers for reuse. Buffers beyond that are dropped, so that
+ * the direct memory of a burst is freed again by the garbage collector.</p>
+ *
+ * @author &#8904
+ */
+public class SpillableAudioStore implements AutoCloseable
+{
+    /** The size of the pooled buffers. */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /** The default number of bytes one store may keep in memory. */
+    public static final long DEFAULT_REQUEST_BUDGET = 16L * 1024 * 1024;
+
+    /** The default number of bytes all stores together may keep in memory. */
+    public static final long DEFAULT_GLOBAL_BUDGET = 128L * 1024 * 1024;
+
+    /** The default number of free buffers kept in the pool. */
+    public static final int DEFAULT_POOL_CAPACITY = 32;
+
+    private static final Cleaner cleaner = Cleaner.create();
+    private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+    private static final AtomicLong bytesInUse = new AtomicLong();
+    private static final AtomicLong spillCount = new AtomicLong();
+    private static final AtomicLong spilledBytes = new AtomicLong();
+    private static volatile long requestBudget = DEFAULT_REQUEST_BUDGET;
+    private static volatile long globalBudget = DEFAULT_GLOBAL_BUDGET;
+    private static volatile int poolCapacity = DEFAULT_POOL_CAPACITY;
+
+    private final State state = new State();
+    private final Cleaner.Cleanable cleanable;
+    private long size;
+    private boolean sealed;
+    private boolean closed;
+
+    public SpillableAudioStore()
+    {
+        this.cleanable = cleaner.register(this, this.state);
+    }
+
+    /**
+     * @param budget The number of bytes one store may keep in memory before it spills.
+     */
+    public static void setRequestBudget(long budget)
+    {
+        requestBudget = budget;
+    }
+
+    public static long getRequestBudget()
+    {
+        return requestBudget;
+    }
+
+    /**
+     * @param budget The number of bytes all stores together may keep in memory.
+     */
+    public static void setGlobalBudget(long budget)
+    {
+        globalBudget = budget;
+    }
+
+    public static long getGlobalBudget()
+    {
+        return globalBudget;
+    }
+
+    /**
+     * @param capacity The number of free buffers the pool keeps for reuse. Surplus buffers are dropped right away.
+     */
+    public static void setPoolCapacity(int capacity)
+    {
+        if (capacity < 0)
+        {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+
+        poolCapacity = capacity;
+
+        while (pooled.get() > capacity && pool.poll() != null)
+        {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public static int getPoolCapacity()
+    {
+        return poolCapacity;
+    }
+
+    /**
+     * @return The number of free buffers in the pool.
+     */
+    public static int getPooledBufferCount()
+    {
+        return pooled.get();
+    }
+
+    /**
+     * @return The number of bytes that are currently held in memory by all stores.
+     */
+    public static long getBytesInUse()
+    {
+        return bytesInUse.get();
+    }
+
+    /**
+     * @return The number of stores that were spilled to a file.
+     */
+    public static long getSpillCount()
+    {
+        return spillCount.get();
+    }
+
+    /**
+     * @return The number of bytes written to spill files.
+     */
+    public static long getSpilledBytes()
+    {
+        return spilledBytes.get();
+    }
+
+    /**
+     * @throws IOException If a stream was already created or the store was closed.
+     */
+    public synchronized void write(byte[] data, int offset, int length) throws IOException
+    {
+        if (this.sealed)
+        {
+            throw new IOException(this.closed ? "Audio store is closed" : "Audio store is being read");
+        }
+
+        this.size += length;
+
+        if (this.state.file == null)
+        {
+            while (length > 0)
+            {
+                ByteBuffer chunk = this.state.chunks.isEmpty() ? null : this.state.chunks.get(this.state.chunks.size() - 1);
+
+                if (chunk == null || !chunk.hasRemaining())
+                {
+                    chunk = acquireChunk();
+
+                    if (chunk == null)
+                    {
+                        spill();
+                        break;
+                    }
+
+                    this.state.chunks.add(chunk);
+                }
+
+                int count = Math.min(length, chunk.remaining());
+                chunk.put(data, offset, count);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        if (length > 0)
+        {
+            ByteBuffer remaining = ByteBuffer.wrap(data, offset, length);
+
+            while (remaining.hasRemaining())
+            {
+                this.state.file.write(remaining);
+            }
+
+            spilledBytes.addAndGet(length);
+        }
+    }
+
+    public void write(byte[] data) throws IOException
+    {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * @return The number of written bytes.
+     */
+    public synchronized long size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @return true if the content was moved to a file.
+     */
+    public synchronized boolean isSpilled()
+    {
+        return this.state.file != null;
+    }
+
+    /**
+     * Creates a stream over the content of this store and seals it against further writes. Spilled content is mapped
+     * into memory instead of read through the file. The store keeps its content until it and all of its streams are
+     * closed.
+     *
+     * @return
+     * @throws IOException If the store was closed.
+     */
+    public synchronized InputStream toInputStream() throws IOException
+    {
+        if (this.closed)
+        {
+            throw new IOException("Audio store is closed");
+        }
+
+        this.sealed = true;
+        List<InputStream> parts = new ArrayList<>();
+
+        if (this.state.file == null)
+        {
+            for (ByteBuffer chunk : this.state.chunks)
+            {
+                parts.add(new ByteBufferInputStream(chunk.duplicate().flip()));
+            }
+        }
+        else
+        {
+            for (long position = 0; position < this.size; position += Integer.MAX_VALUE)
+            {
+                long length = Math.min(Integer.MAX_VALUE, this.size - position);
+                MappedByteBuffer mapped = this.state.file.map(FileChannel.MapMode.READ_ONLY, position, length);
+                parts.add(new ByteBufferInputStream(mapped));
+            }
+        }
+
+        this.state.retain();
+        return new StoreInputStream(parts);
+    }
+
+    /**
+     * Seals the store. The buffers go back to the pool and the spill file is deleted as soon as all streams of this
+     * store are closed as well.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            if (this.closed)
+            {
+                return;
+            }
+
+            this.closed = true;
+            this.sealed = true;
+        }
+
+        release();
+    }
+
+    private void release()
+    {
+        if (this.state.release())
+        {
+            this.cleanable.clean();
+        }
+    }
+
+    private ByteBuffer acquireChunk()
+    {
+        if ((this.state.chunks.size() + 1L) * CHUNK_SIZE > requestBudget || BtMaryRuntimeUtils.lowMemoryCondition())
+        {
+            return null;
+        }
+
+        while (true)
+        {
+            long inUse = bytesInUse.get();
+
+            if (inUse + CHUNK_SIZE > globalBudget)
+            {
+                return null;
+            }
+
+            if (bytesInUse.compareAndSet(inUse, inUse + CHUNK_SIZE))
+            {
+                break;
+            }
+        }
+
+        ByteBuffer chunk = pool.poll();
+
+        if (chunk == null)
+        {
+            return ByteBuffer.allocateDirect(CHUNK_SIZE);
+        }
+
+        pooled.decrementAndGet();
+        return chunk;
+    }
+
+    private void spill() throws IOException
+    {
+        Path path = Files.createTempFile("btspeech-audio", ".pcm");
+        this.state.file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        path.toFile().deleteOnExit();
+        spillCount.incrementAndGet();
+
+        for (ByteBuffer chunk : this.state.chunks)
+        {
+            ByteBuffer content = chunk.duplicate().flip();
+            spilledBytes.addAndGet(content.remaining());
+
+            while (content.hasRemaining())
+            {
+                this.state.file.write(content);
+            }
+        }
+
+        this.state.releaseChunks();
+    }
+
+    /**
+     * A stream over the content of the store. It references the store, so that the cleaner can't release the content
+     * while the stream is still reachable.
+     */
+    private final class StoreInputStream extends SequenceInputStream
+    {
+        private boolean closed;
+
+        private StoreInputStream(List<InputStream> parts)
+        {
+            super(Collections.enumeration(parts));
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            super.close();
+
+            synchronized (this)
+            {
+                if (this.closed)
+                {
+                    return;
+                }
+
+                this.closed = true;
+            }
+
+            release();
+        }
+    }
+
+    /**
+     * The resources of a store, kept separate so that the cleaner does not reference the store itself.
+     */
+    private static final class State implements Runnable
+    {
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private FileChannel file;
+
+        /** The store itself and every open stream hold one reference. */
+        private int references = 1;
+
+        private synchronized void retain()
+        {
+            this.references++;
+        }
+
+        /**
+         * @return true if this was the last reference.
+         */
+        private synchronized boolean release()
+        {
+            return --this.references == 0;
+        }
+
+        private synchronized void releaseChunks()
+        {
+            for (ByteBuffer chunk : this.chunks)
+            {
+                bytesInUse.addAndGet(-CHUNK_SIZE);
+
+                // buffers beyond the capacity are left to the garbage collector, which frees their memory
+                if (pooled.incrementAndGet() <= poolCapacity)
+                {
+                    chunk.clear();
+                    pool.offer(chunk);
+                }
+                else
+                {
+                    pooled.decrementAndGet();
+                }
+            }
+
+            this.chunks.clear();
+        }
+
+        @Override
+        public synchronized void run()
+        {
+            releaseChunks();
+
+            if (this.file != null)
+            {
+                try
+                {
+                    this.file.close();
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+
+                this.file = null;
+            }
+        }
+    }
+}
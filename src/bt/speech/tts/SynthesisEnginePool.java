@@ -0,0 +1,166 @@
+package bt.speech.tts;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import marytts.exceptions.MaryConfigurationException;
+import marytts.exceptions.SynthesisException;
+
+/**
+ * Fixed size pool of independently configured {@link BtLocalMaryInterface} instances.
+ *
+ * <p>The voice, effects and style of a {@link BtLocalMaryInterface} are plain mutable fields, so an instance can only
+ * be used by one thread at a time. This pool hands out one instance per caller and lets callers queue up if all
+ * instances are busy, which allows as many syntheses to run in parallel as there are instances.</p>
+ *
+ * @author &#8904
+ */
+public class SynthesisEnginePool
+{
+    private final BlockingQueue<BtLocalMaryInterface> idle;
+    private final int size;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Creates a pool with one engine per available processor.
+     *
+     * @throws MaryConfigurationException
+     */
+    public SynthesisEnginePool() throws MaryConfigurationException
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public SynthesisEnginePool(int size) throws MaryConfigurationException
+    {
+        if (size < 1)
+        {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+
+        this.size = size;
+        this.idle = new ArrayBlockingQueue<>(size, true);
+
+        for (int i = 0; i < size; i++)
+        {
+            this.idle.add(new BtLocalMaryInterface());
+        }
+    }
+
+    /**
+     * Takes an engine out of the pool, waiting until one becomes available.
+     *
+     * <p>The engine must be given back via {@link #release(BtLocalMaryInterface)}.</p>
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    public BtLocalMaryInterface checkout() throws InterruptedException
+    {
+        this.waiting.incrementAndGet();
+
+        try
+        {
+            return this.idle.take();
+        }
+        finally
+        {
+            this.waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Takes an engine out of the pool, waiting at most the given time.
+     *
+     * @param timeout
+     * @param unit
+     * @return The engine or null if none became available in time.
+     * @throws InterruptedException
+     */
+    public BtLocalMaryInterface checkout(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        this.waiting.incrementAndGet();
+
+        try
+        {
+            return this.idle.poll(timeout, unit);
+        }
+        finally
+        {
+            this.waiting.decrementAndGet();
+        }
+    }
+
+    public void release(BtLocalMaryInterface engine)
+    {
+        if (!this.idle.offer(engine))
+        {
+            throw new IllegalStateException("Engine does not belong to this pool");
+        }
+    }
+
+    /**
+     * Checks out an engine, configures it with the given options, runs the task and returns the engine to the pool.
+     *
+     * @param options
+     * @param task
+     * @return The result of the task.
+     * @throws SynthesisException
+     */
+    public <T> T execute(SynthesisOptions options, Task<T> task) throws SynthesisException
+    {
+        BtLocalMaryInterface engine;
+
+        try
+        {
+            engine = checkout();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SynthesisException("Interrupted while waiting for a synthesis engine", e);
+        }
+
+        try
+        {
+            options.applyTo(engine);
+            return task.run(engine);
+        }
+        finally
+        {
+            release(engine);
+        }
+    }
+
+    public int getSize()
+    {
+        return this.size;
+    }
+
+    /**
+     * @return The number of engines that are currently checked out.
+     */
+    public int getBusyCount()
+    {
+        return this.size - this.idle.size();
+    }
+
+    /**
+     * @return The number of callers that are currently waiting for an engine.
+     */
+    public int getWaitingCount()
+    {
+        return this.waiting.get();
+    }
+
+    /**
+     * A piece of work that needs exclusive access to a configured engine.
+     */
+    @FunctionalInterface
+    public interface Task<T>
+    {
+        T run(BtLocalMaryInterface engine) throws SynthesisException;
+    }
+}
@@ -0,0 +1,197 @@
+package bt.speech.tts;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory methods for the executors that run asynchronous syntheses.
+ *
+ * <p>All executors created here are bounded: once the configured number of tasks is pending, further tasks are
+ * rejected with a {@link RejectedExecutionException} instead of piling up.</p>
+ *
+ * @author &#8904
+ */
+public final class SynthesisExecutors
+{
+    private static final Method newVirtualThreadPerTaskExecutor = findVirtualThreadFactoryMethod();
+    private static final boolean virtualThreadSupported = probeVirtualThreads();
+
+    private SynthesisExecutors()
+    {
+    }
+
+    /**
+     * @return true if the running JDK can create virtual threads. On JDK 19 and 20 this requires
+     *         <code>--enable-preview</code>.
+     */
+    public static boolean isVirtualThreadSupported()
+    {
+        return virtualThreadSupported;
+    }
+
+    /**
+     * Creates an executor with one virtual thread per task if the JDK supports virtual threads, otherwise a pool of
+     * platform threads with one thread per available processor.
+     *
+     * @param maxPending The maximum number of tasks that may be queued or running at the same time.
+     * @return
+     */
+    public static Executor newDefaultExecutor(int maxPending)
+    {
+        if (isVirtualThreadSupported())
+        {
+            try
+            {
+                return newVirtualThreadExecutor(maxPending);
+            }
+            catch (UnsupportedOperationException e)
+            {
+                // fall back to platform threads, this is called during class initialization
+            }
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        return newBoundedExecutor(threads, Math.max(1, maxPending - threads));
+    }
+
+    /**
+     * Creates a fixed pool of daemon platform threads with a bounded queue.
+     *
+     * @param threads
+     * @param queueCapacity
+     * @return
+     */
+    public static ExecutorService newBoundedExecutor(int threads, int queueCapacity)
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                                                             60, TimeUnit.SECONDS,
+                                                             new ArrayBlockingQueue<>(queueCapacity),
+                                                             new SynthesisThreadFactory(),
+                                                             new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for every task.
+     *
+     * @param maxPending The maximum number of tasks that may be running at the same time.
+     * @return
+     * @throws UnsupportedOperationException If the JDK does not support virtual threads.
+     */
+    public static Executor newVirtualThreadExecutor(int maxPending)
+    {
+        if (!isVirtualThreadSupported())
+        {
+            throw new UnsupportedOperationException("Virtual threads are not supported by Java " + System.getProperty("java.version"));
+        }
+
+        try
+        {
+            return new BoundedExecutor((Executor)newVirtualThreadPerTaskExecutor.invoke(null), maxPending);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new UnsupportedOperationException("Failed to create virtual thread executor", e);
+        }
+    }
+
+    /**
+     * The factory method exists on JDK 19 and 20 even without preview features, but fails there, so it has to be
+     * called once to know whether virtual threads can be used.
+     */
+    private static boolean probeVirtualThreads()
+    {
+        if (newVirtualThreadPerTaskExecutor == null)
+        {
+            return false;
+        }
+
+        try
+        {
+            ((ExecutorService)newVirtualThreadPerTaskExecutor.invoke(null)).shutdown();
+            return true;
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            return false;
+        }
+    }
+
+    private static Method findVirtualThreadFactoryMethod()
+    {
+        try
+        {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Limits the number of tasks that are pending in a delegate executor at the same time.
+     */
+    private static final class BoundedExecutor implements Executor
+    {
+        private final Executor delegate;
+        private final Semaphore permits;
+
+        private BoundedExecutor(Executor delegate, int maxPending)
+        {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxPending);
+        }
+
+        @Override
+        public void execute(Runnable command)
+        {
+            if (!this.permits.tryAcquire())
+            {
+                throw new RejectedExecutionException("Too many pending syntheses");
+            }
+
+            try
+            {
+                this.delegate.execute(() ->
+                {
+                    try
+                    {
+                        command.run();
+                    }
+                    finally
+                    {
+                        this.permits.release();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                this.permits.release();
+                throw e;
+            }
+        }
+    }
+
+    private static final class SynthesisThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "TextToSpeech-synthesis-" + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package bt.speech.tts;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sound.sampled.AudioFormat;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import marytts.exceptions.SynthesisException;
+import marytts.util.MaryUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Embedded HTTP endpoint for synthesis, built on the JDK's {@link HttpServer}.
+ *
+ * <p><code>GET /synthesize?text=...</code> (or <code>POST /synthesize</code> with the text as UTF-8 body) returns
+ * the audio of the text. Optional parameters are <code>voice</code>, <code>effects</code>, <code>style</code> and
+ * <code>gain</code>, which override the {@link TextToSpeech#getOptions() default options}, <code>format</code>
+ * (<code>wav</code> or <code>pcm</code>) and <code>stream</code>. Streamed responses are sent chunked, sentence by
+ * sentence as the text is synthesized. Other responses come from the audio caches and carry an ETag, so that clients
+ * can revalidate them with <code>If-None-Match</code> and get a 304 without any synthesis.</p>
+ *
+ * <p>Requests that are rejected by the {@link AdmissionController} or a saturated executor, or that need a synthesis
+ * while MARY is not running, are answered with 503. Revalidations and audio from the in-memory cache are served without
+ * MARY, and so is everything while the syntheses run in {@link TextToSpeech#getWorkerPool() worker processes}.
+ * Streamed responses only send their status with the first chunk, so that a rejected or failed first sentence is
+ * answered with 503 or 500 as well. They take their format from the first synthesized sentence, so any voice can be
+ * streamed, and a text without audio is answered with 204. If a later sentence fails, the connection is closed without
+ * terminating the chunked body, so that the client sees the response as incomplete. Keep-alive is handled by the JDK
+ * server.</p>
+ *
+ * @author &#8904
+ */
+public class SynthesisHttpServer
+{
+    /** The default number of requests that may be handled at the same time. */
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 1024;
+
+    private static final Logger logger = MaryUtils.getLogger("http");
+
+    private final HttpServer server;
+
+    /**
+     * @param address  The address to listen on. Port 0 picks a free port.
+     * @param executor The executor that runs the request handlers, i.e. from
+     *                 {@link SynthesisExecutors#newDefaultExecutor(int)}.
+     * @throws IOException
+     */
+    public SynthesisHttpServer(InetSocketAddress address, Executor executor) throws IOException
+    {
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/synthesize", this::handleSynthesize);
+    }
+
+    /**
+     * Creates a server that handles requests on virtual threads where they are available.
+     *
+     * @param address
+     * @throws IOException
+     */
+    public SynthesisHttpServer(InetSocketAddress address) throws IOException
+    {
+        this(address, SynthesisExecutors.newDefaultExecutor(DEFAULT_MAX_CONCURRENT_REQUESTS));
+    }
+
+    public void start()
+    {
+        this.server.start();
+    }
+
+    /**
+     * @param delaySeconds The maximum time to wait for running requests to complete.
+     */
+    public void stop(int delaySeconds)
+    {
+        this.server.stop(delaySeconds);
+    }
+
+    /**
+     * @return The port the server is listening on.
+     */
+    public int getPort()
+    {
+        return this.server.getAddress().getPort();
+    }
+
+    private void handleSynthesize(HttpExchange exchange) throws IOException
+    {
+        boolean aborted = false;
+
+        try
+        {
+            String method = exchange.getRequestMethod();
+
+            if (!method.equals("GET") && !method.equals("POST"))
+            {
+                sendText(exchange, 405, "Method not allowed");
+                return;
+            }
+
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String text = params.get("text");
+
+            if (text == null && method.equals("POST"))
+            {
+                text = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            }
+
+            if (text == null || text.isBlank())
+            {
+                sendText(exchange, 400, "Missing text");
+                return;
+            }
+
+            SynthesisOptions options;
+
+            try
+            {
+                options = parseOptions(params);
+            }
+            catch (NumberFormatException e)
+            {
+                sendText(exchange, 400, "Invalid gain");
+                return;
+            }
+
+            boolean wav = !"pcm".equals(params.getOrDefault("format", "wav"));
+
+            if (Boolean.parseBoolean(params.get("stream")))
+            {
+                stream(exchange, text, options, wav);
+            }
+            else
+            {
+                send(exchange, text, options, wav);
+            }
+        }
+        catch (AdmissionRejectedException | RejectedExecutionException | MaryNotReadyException e)
+        {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 503, "Server is busy");
+        }
+        catch (StreamAbortedException e)
+        {
+            // the JDK server closes the connection if the handler throws before the exchange is closed
+            aborted = true;
+            throw e;
+        }
+        catch (SynthesisException | RuntimeException e)
+        {
+            logger.error("Synthesis failed", e);
+            sendError(exchange, 500, "Synthesis failed");
+        }
+        finally
+        {
+            if (!aborted)
+            {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Rejects a request that needs a synthesis in this JVM right away while MARY is not running, instead of waiting for
+     * the startup to complete. The worker processes run MARY themselves.
+     *
+     * @throws MaryNotReadyException
+     */
+    private static void requireMary()
+    {
+        int state = BtMary.currentState();
+
+        if (TextToSpeech.getWorkerPool() == null && state != BtMary.STATE_RUNNING)
+        {
+            throw new MaryNotReadyException("MARY is not running", state);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException
+    {
+        // once the headers are out, the status can't be changed anymore
+        if (exchange.getResponseCode() == -1)
+        {
+            sendText(exchange, status, message);
+        }
+    }
+
+    private static void send(HttpExchange exchange, String text, SynthesisOptions options, boolean wav) throws IOException, SynthesisException
+    {
+        String etag = etag(text, options, wav);
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", etag);
+        headers.set("Cache-Control", "no-cache");
+
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+        {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        PcmAudio audio = TextToSpeech.getCachedPcmAudio(text, options);
+
+        if (audio == null)
+        {
+            requireMary();
+            audio = TextToSpeech.getPcmAudio(text, options);
+        }
+
+        headers.set("Content-Type", contentType(audio.getFormat(), wav));
+        exchange.sendResponseHeaders(200, audio.size() + (wav ? AudioWriter.WAV_HEADER_SIZE : 0));
+        WritableByteChannel channel = Channels.newChannel(exchange.getResponseBody());
+
+        if (wav)
+        {
+            AudioWriter.writeWav(audio, channel);
+        }
+        else
+        {
+            AudioWriter.writePcm(audio, channel);
+        }
+    }
+
+    private static void stream(HttpExchange exchange, String text, SynthesisOptions options, boolean wav) throws IOException, SynthesisException
+    {
+        requireMary();
+        OutputStream body = exchange.getResponseBody();
+        AtomicBoolean started = new AtomicBoolean();
+        PcmStreamPublisher publisher = TextToSpeech.streamAudio(text, options);
+
+        // the status is sent with the first chunk, until then a failure can still be answered with an error status.
+        // The format is the one the first sentence was synthesized in, which is known by then.
+        CompletableFuture<Void> done = TextToSpeech.streamAudio(publisher, chunk ->
+        {
+            try
+            {
+                if (started.compareAndSet(false, true))
+                {
+                    startStream(exchange, body, publisher.getFormat(), wav);
+                }
+
+                writeFully(body, chunk);
+                body.flush();
+            }
+            catch (IOException e)
+            {
+                // the client went away, which cancels the synthesis
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        Throwable failure;
+
+        try
+        {
+            done.get();
+
+            if (started.compareAndSet(false, true))
+            {
+                // the text produced no audio, so there is no format to describe either
+                exchange.sendResponseHeaders(204, -1);
+            }
+
+            return;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            failure = e;
+        }
+        catch (ExecutionException e)
+        {
+            failure = e.getCause();
+        }
+
+        if (!started.get())
+        {
+            if (failure instanceof SynthesisException)
+            {
+                throw (SynthesisException)failure;
+            }
+
+            if (failure instanceof RuntimeException)
+            {
+                throw (RuntimeException)failure;
+            }
+
+            throw new SynthesisException("Streaming synthesis failed", failure);
+        }
+
+        logger.warn("Streaming synthesis failed after the response was started", failure);
+        throw new StreamAbortedException(failure);
+    }
+
+    private static void startStream(HttpExchange exchange, OutputStream body, AudioFormat format, boolean wav) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", contentType(format, wav));
+        exchange.sendResponseHeaders(200, 0);
+
+        if (wav)
+        {
+            // the length is unknown up front, so the header claims the maximum like other streaming WAV sources
+            writeFully(body, AudioWriter.wavHeader(format, 0xFFFFFFFFL - 36));
+        }
+    }
+
+    private static void writeFully(OutputStream out, ByteBuffer data) throws IOException
+    {
+        if (data.hasArray())
+        {
+            out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        else
+        {
+            byte[] copy = new byte[data.remaining()];
+            data.duplicate().get(copy);
+            out.write(copy);
+        }
+    }
+
+    private static String contentType(AudioFormat format, boolean wav)
+    {
+        if (wav)
+        {
+            return "audio/wav";
+        }
+
+        return "audio/L" + format.getSampleSizeInBits() + ";rate=" + (int)format.getSampleRate() + ";channels=" + format.getChannels();
+    }
+
+    /**
+     * The ETag covers everything that determines the audio, including the MARY version, so it can be computed without
+     * synthesizing.
+     */
+    private static String etag(String text, SynthesisOptions options, boolean wav)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String identity = BtMaryRuntimeUtils.getMaryVersion() + '\0' + options.getVoice() + '\0' + options.getEffects() + '\0'
+                    + options.getStyle() + '\0' + options.getGain() + '\0' + wav + '\0' + text;
+            byte[] hash = digest.digest(identity.getBytes(StandardCharsets.UTF_8));
+            StringBuilder etag = new StringBuilder("\"");
+
+            for (int i = 0; i < 16; i++)
+            {
+                etag.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+
+            return etag.append('"').toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    private static SynthesisOptions parseOptions(Map<String, String> params)
+    {
+        SynthesisOptions options = TextToSpeech.getOptions();
+
+        // an empty voice keeps the default voice
+        if (params.containsKey("voice") && !params.get("voice").isEmpty())
+        {
+            options = options.withVoice(params.get("voice"));
+        }
+
+        if (params.containsKey("effects"))
+        {
+            options = options.withEffects(params.get("effects"));
+        }
+
+        if (params.containsKey("style"))
+        {
+            options = options.withStyle(params.get("style"));
+        }
+
+        if (params.containsKey("gain"))
+        {
+            options = options.withGain(Float.parseFloat(params.get("gain")));
+        }
+
+        return options;
+    }
+
+    private static Map<String, String> parseQuery(String query)
+    {
+        Map<String, String> params = new HashMap<>();
+
+        if (query == null)
+        {
+            return params;
+        }
+
+        for (String pair : query.split("&"))
+        {
+            int separator = pair.indexOf('=');
+
+            if (separator > 0)
+            {
+                params.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                           URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+
+        return params;
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException
+    {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Thrown once a streamed response has failed after its status was sent.
+     */
+    private static final class StreamAbortedException extends IOException
+    {
+        private StreamAbortedException(Throwable cause)
+        {
+            super("Streaming synthesis failed after the response was started", cause);
+        }
+    }
+}
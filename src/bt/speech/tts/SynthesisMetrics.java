@@ -0,0 +1,184 @@
+package bt.speech.tts;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Wall time and allocation statistics of the individual stages of the MARY pipeline, per voice.
+ *
+ * <p>While enabled, {@link BtLocalMaryInterface} processes every request one module at a time instead of as a
+ * whole, so that the time and the bytes allocated by each stage can be measured. This adds a little overhead per
+ * stage, which is why the metrics are disabled by default.</p>
+ *
+ * @author &#8904
+ */
+public final class SynthesisMetrics implements SynthesisMetricsMXBean
+{
+    /** The name under which the metrics are registered with the platform MBean server. */
+    public static final String OBJECT_NAME = "bt.speech.tts:type=SynthesisMetrics";
+
+    private static final SynthesisMetrics instance = new SynthesisMetrics();
+
+    private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+    private final com.sun.management.ThreadMXBean allocationBean;
+    private volatile boolean enabled;
+    private boolean registered;
+
+    private SynthesisMetrics()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported())
+        {
+            this.allocationBean = (com.sun.management.ThreadMXBean)bean;
+        }
+        else
+        {
+            this.allocationBean = null;
+        }
+    }
+
+    public static SynthesisMetrics get()
+    {
+        return instance;
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return this.enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under {@link #OBJECT_NAME}.
+     *
+     * @throws JMException
+     */
+    public synchronized void registerMBean() throws JMException
+    {
+        if (!this.registered)
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            this.registered = true;
+        }
+    }
+
+    /**
+     * @return The number of bytes allocated by the current thread so far, or -1 if that is not supported.
+     */
+    long currentThreadAllocatedBytes()
+    {
+        if (this.allocationBean == null || !this.allocationBean.isThreadAllocatedMemoryEnabled())
+        {
+            return -1;
+        }
+
+        return this.allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @param voice
+     * @param stage
+     * @param nanos          The wall time of the stage.
+     * @param allocatedBytes The bytes allocated during the stage or a negative value if unknown.
+     */
+    public void record(String voice, String stage, long nanos, long allocatedBytes)
+    {
+        Stage stats = this.stages.computeIfAbsent(voice + "/" + stage, k -> new Stage());
+        stats.latency.record(nanos);
+
+        if (allocatedBytes >= 0)
+        {
+            stats.allocatedBytes.addAndGet(allocatedBytes);
+        }
+    }
+
+    /**
+     * @param voice
+     * @param stage
+     * @return The latency histogram in nanoseconds or null if the stage has not been recorded for the voice.
+     */
+    public LatencyHistogram getLatencyHistogram(String voice, String stage)
+    {
+        Stage stats = this.stages.get(voice + "/" + stage);
+        return stats == null ? null : stats.latency;
+    }
+
+    @Override
+    public Map<String, Long> getCounts()
+    {
+        return collectLong(s -> s.latency.getCount());
+    }
+
+    @Override
+    public Map<String, Double> getMeanMillis()
+    {
+        return collectDouble(s -> s.latency.getMean() / 1000000);
+    }
+
+    @Override
+    public Map<String, Double> getP50Millis()
+    {
+        return collectDouble(s -> s.latency.getValueAtPercentile(50) / 1000000.0);
+    }
+
+    @Override
+    public Map<String, Double> getP99Millis()
+    {
+        return collectDouble(s -> s.latency.getValueAtPercentile(99) / 1000000.0);
+    }
+
+    @Override
+    public Map<String, Double> getMaxMillis()
+    {
+        return collectDouble(s -> s.latency.getMax() / 1000000.0);
+    }
+
+    @Override
+    public Map<String, Long> getAllocatedBytesPerRequest()
+    {
+        return collectLong(s -> s.latency.getCount() == 0 ? 0 : s.allocatedBytes.get() / s.latency.getCount());
+    }
+
+    @Override
+    public void reset()
+    {
+        this.stages.clear();
+    }
+
+    private Map<String, Long> collectLong(ToLongFunction<Stage> value)
+    {
+        Map<String, Long> result = new TreeMap<>();
+        this.stages.forEach((k, v) -> result.put(k, value.applyAsLong(v)));
+        return result;
+    }
+
+    private Map<String, Double> collectDouble(ToDoubleFunction<Stage> value)
+    {
+        Map<String, Double> result = new TreeMap<>();
+        this.stages.forEach((k, v) -> result.put(k, value.applyAsDouble(v)));
+        return result;
+    }
+
+    private static final class Stage
+    {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+    }
+}
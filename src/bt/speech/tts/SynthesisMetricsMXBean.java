@@ -0,0 +1,30 @@
+package bt.speech.tts;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link SynthesisMetrics}. All maps are keyed by <code>voice/stage</code>, where the stage is the
+ * name of the {@link marytts.datatypes.MaryDataType} a stage produces.
+ *
+ * @author &#8904
+ */
+public interface SynthesisMetricsMXBean
+{
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    Map<String, Long> getCounts();
+
+    Map<String, Double> getMeanMillis();
+
+    Map<String, Double> getP50Millis();
+
+    Map<String, Double> getP99Millis();
+
+    Map<String, Double> getMaxMillis();
+
+    Map<String, Long> getAllocatedBytesPerRequest();
+
+    void reset();
+}
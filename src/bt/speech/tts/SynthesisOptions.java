@@ -0,0 +1,179 @@
+package bt.speech.tts;
+
+import java.util.Objects;
+
+/**
+ * Immutable set of parameters for a single synthesis, i.e. which voice to use and which audio effects and style to
+ * apply.
+ *
+ * <p>The gain and the effects that don't depend on HMM parameters are applied to the synthesized PCM afterwards (see
+ * {@link PcmEffects}), so they don't affect the {@link #cacheKey(String) cache key}.</p>
+ *
+ * @author &#8904
+ */
+public final class SynthesisOptions
+{
+    private final String voice;
+    private final String effects;
+    private final String style;
+    private final float gain;
+    private final String synthesisEffects;
+    private final String postEffects;
+
+    public SynthesisOptions(String voice, String effects, String style)
+    {
+        this(voice, effects, style, 1.0f);
+    }
+
+    /**
+     * @param voice
+     * @param effects
+     * @param style
+     * @param gain    Linear factor for all samples, applied after synthesis.
+     */
+    public SynthesisOptions(String voice, String effects, String style, float gain)
+    {
+        this.voice = voice;
+        this.effects = effects;
+        this.style = style;
+        this.gain = gain;
+        this.synthesisEffects = PcmEffects.synthesisEffects(effects);
+        this.postEffects = PcmEffects.postEffects(effects);
+    }
+
+    public static SynthesisOptions of(TTSVoice voice)
+    {
+        return new SynthesisOptions(voice.getVoiceName(), null, null);
+    }
+
+    public SynthesisOptions withVoice(TTSVoice voice)
+    {
+        return new SynthesisOptions(voice.getVoiceName(), this.effects, this.style, this.gain);
+    }
+
+    public SynthesisOptions withVoice(String voice)
+    {
+        return new SynthesisOptions(voice, this.effects, this.style, this.gain);
+    }
+
+    /**
+     * @param effects A MARY audio effects string, i.e. as created by
+     *                {@link marytts.signalproc.effects.AudioEffect#getFullEffectAsString()}.
+     * @return
+     */
+    public SynthesisOptions withEffects(String effects)
+    {
+        return new SynthesisOptions(this.voice, effects, this.style, this.gain);
+    }
+
+    public SynthesisOptions withStyle(String style)
+    {
+        return new SynthesisOptions(this.voice, this.effects, style, this.gain);
+    }
+
+    /**
+     * @param gain Linear factor for all samples, i.e. 0.5 for half the amplitude.
+     * @return
+     */
+    public SynthesisOptions withGain(float gain)
+    {
+        return new SynthesisOptions(this.voice, this.effects, this.style, gain);
+    }
+
+    public String getVoice()
+    {
+        return this.voice;
+    }
+
+    public String getEffects()
+    {
+        return this.effects;
+    }
+
+    public String getStyle()
+    {
+        return this.style;
+    }
+
+    public float getGain()
+    {
+        return this.gain;
+    }
+
+    /**
+     * @return The part of the effects that is applied during synthesis.
+     */
+    public String getSynthesisEffects()
+    {
+        return this.synthesisEffects;
+    }
+
+    /**
+     * @return The part of the effects that is applied to the synthesized PCM.
+     */
+    public String getPostEffects()
+    {
+        return this.postEffects;
+    }
+
+    /**
+     * @param text
+     * @return The key under which the audio of the given text is cached for these options.
+     */
+    public AudioCacheKey cacheKey(String text)
+    {
+        return new AudioCacheKey(text, this.voice, this.synthesisEffects, this.style);
+    }
+
+    /**
+     * Configures the given interface to synthesize with these options.
+     *
+     * @param marytts
+     */
+    public void applyTo(BtLocalMaryInterface marytts)
+    {
+        if (this.voice == null)
+        {
+            marytts.setLocale(marytts.getLocale());
+        }
+        else if (!this.voice.equals(marytts.getVoice()))
+        {
+            marytts.setVoice(this.voice);
+        }
+
+        marytts.setAudioEffects(this.synthesisEffects);
+        marytts.setStyle(this.style);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+
+        if (!(o instanceof SynthesisOptions))
+        {
+            return false;
+        }
+
+        SynthesisOptions other = (SynthesisOptions)o;
+        return Objects.equals(this.voice, other.voice)
+                && Objects.equals(this.effects, other.effects)
+                && Objects.equals(this.style, other.style)
+                && this.gain == other.gain;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(this.voice, this.effects, this.style, this.gain);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SynthesisOptions[voice=" + this.voice + ", effects=" + this.effects + ", style=" + this.style + ", gain=" + this.gain + "]";
+    }
+}
@@ -0,0 +1,108 @@
+package bt.speech.tts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Main class of a worker process started by {@link SynthesisWorkerPool}.
+ *
+ * <p>The worker starts MARY, listens on a loopback port and announces it on its standard output with
+ * {@link WorkerProtocol#READY_PREFIX}. It then synthesizes the requests of every connection in parallel and
+ * answers them in the order they complete. The worker exits once the pool closes its connection.</p>
+ *
+ * @author &#8904
+ */
+public final class SynthesisWorker
+{
+    private SynthesisWorker()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        BtMary.startup();
+
+        // the pool caches the audio itself
+        TextToSpeech.setAudioCacheSize(0);
+
+        ExecutorService executor = SynthesisExecutors.newBoundedExecutor(Runtime.getRuntime().availableProcessors(), TextToSpeech.DEFAULT_MAX_PENDING_SYNTHESES);
+
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+        {
+            System.out.println(WorkerProtocol.READY_PREFIX + serverSocket.getLocalPort());
+            System.out.flush();
+
+            try (Socket socket = serverSocket.accept())
+            {
+                socket.setTcpNoDelay(true);
+                serve(socket, executor);
+            }
+        }
+
+        executor.shutdownNow();
+        BtMary.shutdown();
+        System.exit(0);
+    }
+
+    private static void serve(Socket socket, ExecutorService executor) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        while (true)
+        {
+            WorkerProtocol.Request request;
+
+            try
+            {
+                request = WorkerProtocol.readRequest(in);
+            }
+            catch (EOFException e)
+            {
+                return;
+            }
+
+            try
+            {
+                executor.execute(() -> handle(request, out));
+            }
+            catch (RejectedExecutionException e)
+            {
+                WorkerProtocol.writeError(out, request.id, WorkerProtocol.STATUS_REJECTED, "Worker is saturated");
+            }
+        }
+    }
+
+    private static void handle(WorkerProtocol.Request request, DataOutputStream out)
+    {
+        try
+        {
+            try
+            {
+                WorkerProtocol.writeAudio(out, request.id, TextToSpeech.getPcmAudio(request.text, request.options));
+            }
+            catch (AdmissionRejectedException e)
+            {
+                WorkerProtocol.writeError(out, request.id, WorkerProtocol.STATUS_REJECTED, e.getMessage());
+            }
+            catch (Exception e)
+            {
+                WorkerProtocol.writeError(out, request.id, WorkerProtocol.STATUS_FAILED, String.valueOf(e));
+            }
+        }
+        catch (IOException e)
+        {
+            // the pool went away, the main loop ends with the connection
+            e.printStackTrace();
+        }
+    }
+}
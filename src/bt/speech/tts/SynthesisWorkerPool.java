@@ -0,0 +1,465 @@
+package bt.speech.tts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import marytts.exceptions.SynthesisException;
+
+/**
+ * Runs syntheses in separate worker JVMs on the same host, each with its own MARY runtime.
+ *
+ * <p>Every worker runs {@link SynthesisWorker} and is connected over a loopback socket using the
+ * {@link WorkerProtocol}. Each synthesis goes to the worker with the fewest requests in flight. If a worker dies, its
+ * in-flight requests are retried once on the other workers and the worker is restarted in the background.</p>
+ *
+ * @author &#8904
+ */
+public class SynthesisWorkerPool implements AutoCloseable
+{
+    /** The default time a worker may take to start MARY. */
+    public static final long DEFAULT_STARTUP_TIMEOUT_SECONDS = 120;
+
+    private final List<String> jvmArgs;
+    private final Worker[] workers;
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong restarts = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Starts the given number of workers and waits until all of them are ready.
+     *
+     * @param size    The number of worker processes.
+     * @param jvmArgs Additional arguments for the worker JVMs, i.e. heap settings.
+     * @throws IOException If a worker could not be started.
+     */
+    public SynthesisWorkerPool(int size, List<String> jvmArgs) throws IOException
+    {
+        this.jvmArgs = new ArrayList<>(jvmArgs);
+        this.workers = new Worker[size];
+        List<CompletableFuture<Worker>> starting = new ArrayList<>();
+
+        for (int i = 0; i < size; i++)
+        {
+            int index = i;
+            starting.add(CompletableFuture.supplyAsync(() -> launch(index)));
+        }
+
+        try
+        {
+            for (int i = 0; i < size; i++)
+            {
+                this.workers[i] = starting.get(i).get();
+            }
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            for (CompletableFuture<Worker> worker : starting)
+            {
+                worker.thenAccept(Worker::destroy);
+            }
+
+            if (e instanceof InterruptedException)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            throw new IOException("Failed to start synthesis workers", e.getCause() == null ? e : e.getCause());
+        }
+    }
+
+    /**
+     * Synthesizes the given text on the least loaded worker.
+     *
+     * @param text
+     * @param options Only the voice, synthesis effects and style are sent to the worker.
+     * @return A future that fails with a {@link SynthesisException} if the synthesis fails, or with an
+     *         {@link AdmissionRejectedException} if the worker rejects it.
+     */
+    public CompletableFuture<PcmAudio> synthesize(String text, SynthesisOptions options)
+    {
+        return dispatch(new Call(this.nextId.incrementAndGet(), text, options));
+    }
+
+    /**
+     * Synthesizes the given text on the least loaded worker and waits for the result.
+     */
+    public PcmAudio synthesizeNow(String text, SynthesisOptions options) throws SynthesisException
+    {
+        try
+        {
+            return synthesize(text, options).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SynthesisException("Interrupted while waiting for a synthesis worker", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof SynthesisException)
+            {
+                throw (SynthesisException)e.getCause();
+            }
+
+            throw new SynthesisException("Synthesis worker failed", e.getCause());
+        }
+    }
+
+    private CompletableFuture<PcmAudio> dispatch(Call call)
+    {
+        while (!this.closed)
+        {
+            Worker worker = leastLoaded();
+
+            if (worker == null)
+            {
+                break;
+            }
+
+            if (worker.send(call))
+            {
+                return call.result;
+            }
+        }
+
+        call.result.completeExceptionally(new SynthesisException("No synthesis worker available"));
+        return call.result;
+    }
+
+    private synchronized Worker leastLoaded()
+    {
+        Worker best = null;
+
+        for (Worker worker : this.workers)
+        {
+            if (worker != null && worker.alive && (best == null || worker.pending.size() < best.pending.size()))
+            {
+                best = worker;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @return The number of requests in flight per worker, or -1 for a worker that is restarting.
+     */
+    public synchronized int[] getLoads()
+    {
+        int[] loads = new int[this.workers.length];
+
+        for (int i = 0; i < loads.length; i++)
+        {
+            Worker worker = this.workers[i];
+            loads[i] = worker != null && worker.alive ? worker.pending.size() : -1;
+        }
+
+        return loads;
+    }
+
+    /**
+     * @return The number of workers that were restarted after they died.
+     */
+    public long getRestartCount()
+    {
+        return this.restarts.get();
+    }
+
+    public int getSize()
+    {
+        return this.workers.length;
+    }
+
+    /**
+     * Stops all workers. In-flight requests fail.
+     */
+    @Override
+    public void close()
+    {
+        this.closed = true;
+
+        synchronized (this)
+        {
+            for (Worker worker : this.workers)
+            {
+                if (worker != null)
+                {
+                    worker.destroy();
+
+                    for (Call call : worker.pending.values())
+                    {
+                        call.result.completeExceptionally(new SynthesisException("Synthesis worker pool was closed"));
+                    }
+                }
+            }
+        }
+    }
+
+    private Worker launch(int index)
+    {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(this.jvmArgs);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(SynthesisWorker.class.getName());
+
+        Process process = null;
+
+        try
+        {
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            int port = awaitReady(process);
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+
+            Worker worker = new Worker(index, process, socket);
+            worker.start();
+            return worker;
+        }
+        catch (IOException | TimeoutException | ExecutionException | InterruptedException e)
+        {
+            if (process != null)
+            {
+                process.destroyForcibly();
+            }
+
+            if (e instanceof InterruptedException)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            throw new IllegalStateException("Failed to start synthesis worker " + index, e);
+        }
+    }
+
+    private static int awaitReady(Process process) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        CompletableFuture<Integer> port = new CompletableFuture<>();
+
+        Thread reader = new Thread(() ->
+        {
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)))
+            {
+                // everything else the worker prints is passed through, which also keeps its pipe from filling up
+                for (String line = out.readLine(); line != null; line = out.readLine())
+                {
+                    if (!port.isDone() && line.startsWith(WorkerProtocol.READY_PREFIX))
+                    {
+                        port.complete(Integer.parseInt(line.substring(WorkerProtocol.READY_PREFIX.length()).trim()));
+                    }
+                    else
+                    {
+                        System.out.println(line);
+                    }
+                }
+            }
+            catch (IOException | RuntimeException e)
+            {
+                port.completeExceptionally(e);
+            }
+
+            port.completeExceptionally(new IOException("Synthesis worker exited before it was ready"));
+        }, "TextToSpeech-worker-output");
+        reader.setDaemon(true);
+        reader.start();
+
+        return port.get(DEFAULT_STARTUP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void died(Worker worker)
+    {
+        List<Call> orphaned = new ArrayList<>(worker.pending.values());
+        worker.pending.clear();
+
+        for (Call call : orphaned)
+        {
+            if (call.attempts.get() < 2 && !this.closed)
+            {
+                dispatch(call);
+            }
+            else
+            {
+                call.result.completeExceptionally(new SynthesisException("Synthesis worker " + worker.index + " died"));
+            }
+        }
+
+        if (this.closed)
+        {
+            return;
+        }
+
+        CompletableFuture.supplyAsync(() -> launch(worker.index)).whenComplete((replacement, e) ->
+        {
+            if (e != null)
+            {
+                e.printStackTrace();
+                return;
+            }
+
+            synchronized (this)
+            {
+                if (this.closed)
+                {
+                    replacement.destroy();
+                    return;
+                }
+
+                this.workers[worker.index] = replacement;
+            }
+
+            this.restarts.incrementAndGet();
+        });
+    }
+
+    private static final class Call
+    {
+        private final long id;
+        private final String text;
+        private final SynthesisOptions options;
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final CompletableFuture<PcmAudio> result = new CompletableFuture<>();
+
+        private Call(long id, String text, SynthesisOptions options)
+        {
+            this.id = id;
+            this.text = text;
+            this.options = options;
+        }
+    }
+
+    private final class Worker
+    {
+        private final int index;
+        private final Process process;
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private final Map<Long, Call> pending = new ConcurrentHashMap<>();
+        private volatile boolean alive = true;
+
+        private Worker(int index, Process process, Socket socket) throws IOException
+        {
+            this.index = index;
+            this.process = process;
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        private void start()
+        {
+            Thread reader = new Thread(this::readResponses, "TextToSpeech-worker-" + this.index);
+            reader.setDaemon(true);
+            reader.start();
+            this.process.onExit().thenRun(this::fail);
+        }
+
+        /**
+         * @return false if this worker is dead, in which case the call has to go elsewhere.
+         */
+        private boolean send(Call call)
+        {
+            call.attempts.incrementAndGet();
+            this.pending.put(call.id, call);
+
+            try
+            {
+                WorkerProtocol.writeRequest(this.out, call.id, call.text, call.options);
+                return true;
+            }
+            catch (IOException e)
+            {
+                this.pending.remove(call.id);
+                fail();
+                return false;
+            }
+        }
+
+        private void readResponses()
+        {
+            try
+            {
+                while (true)
+                {
+                    WorkerProtocol.Response response = WorkerProtocol.readResponse(this.in);
+                    Call call = this.pending.remove(response.id);
+
+                    if (call == null)
+                    {
+                        continue;
+                    }
+
+                    if (response.status == WorkerProtocol.STATUS_OK)
+                    {
+                        call.result.complete(response.audio);
+                    }
+                    else if (response.status == WorkerProtocol.STATUS_REJECTED)
+                    {
+                        call.result.completeExceptionally(new AdmissionRejectedException(response.message, 0));
+                    }
+                    else
+                    {
+                        call.result.completeExceptionally(new SynthesisException(response.message));
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                fail();
+            }
+        }
+
+        private void fail()
+        {
+            synchronized (this)
+            {
+                if (!this.alive)
+                {
+                    return;
+                }
+
+                this.alive = false;
+            }
+
+            destroy();
+            died(this);
+        }
+
+        private void destroy()
+        {
+            this.alive = false;
+
+            try
+            {
+                this.socket.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+
+            this.process.destroy();
+        }
+    }
+}
@@ -1,23 +1,52 @@
 package bt.speech.tts;
 
+import java.util.Locale;
+
 /**
  * @author &#8904
  *
  */
 public enum TTSVoice
 {
-    CMU_SLT_HSMM("cmu-slt-hsmm"),
-    DFKI_SPIKE_HSMM("dfki-spike-hsmm");
+    CMU_SLT_HSMM("cmu-slt-hsmm", Locale.US),
+    DFKI_SPIKE_HSMM("dfki-spike-hsmm", Locale.UK);
 
     private String voiceName;
+    private Locale locale;
 
-    TTSVoice(String voiceName)
+    TTSVoice(String voiceName, Locale locale)
     {
         this.voiceName = voiceName;
+        this.locale = locale;
     }
 
     public String getVoiceName()
     {
         return this.voiceName;
     }
+
+    /**
+     * @return The locale the voice speaks, known without loading the voice.
+     */
+    public Locale getLocale()
+    {
+        return this.locale;
+    }
+
+    /**
+     * @param voiceName
+     * @return The voice with the given name or null if it is not one of these voices.
+     */
+    public static TTSVoice forName(String voiceName)
+    {
+        for (TTSVoice voice : values())
+        {
+            if (voice.voiceName.equals(voiceName))
+            {
+                return voice;
+            }
+        }
+
+        return null;
+    }
 }
@@ -1,13 +1,33 @@
 package bt.speech.tts;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 
-import bt.scheduler.Threads;
-import marytts.MaryInterface;
 import marytts.exceptions.MaryConfigurationException;
 import marytts.exceptions.SynthesisException;
-import marytts.signalproc.effects.VolumeEffect;
-import marytts.util.data.audio.AudioPlayer;
+import marytts.modules.synthesis.Voice;
 
 /**
  * @author &#8904
@@ -15,85 +35,972 @@ import marytts.util.data.audio.AudioPlayer;
  */
 public final class TextToSpeech
 {
-    private static MaryInterface marytts;
-    private static boolean playSynchronized = true;
+    /** The default byte budget of the audio cache. */
+    public static final long DEFAULT_AUDIO_CACHE_SIZE = 32L * 1024 * 1024;
+
+    /** The default number of asynchronous syntheses that may be pending at the same time. */
+    public static final int DEFAULT_MAX_PENDING_SYNTHESES = 1024;
+
+    /** The default number of chunks that pipelined playback synthesizes ahead of the playing one. */
+    public static final int DEFAULT_PIPELINE_LOOK_AHEAD = 2;
+
+    /** The default maximum length of a chunk in pipelined playback. */
+    public static final int DEFAULT_PIPELINE_CHUNK_LENGTH = 250;
+
+    /** The default size of the chunks published by {@link #streamAudio(String, SynthesisOptions)}. */
+    public static final int DEFAULT_STREAM_CHUNK_SIZE = 4096;
+
+    /** The default number of chunks buffered per subscriber of {@link #streamAudio(String, SynthesisOptions)}. */
+    public static final int DEFAULT_STREAM_BUFFER_CAPACITY = 64;
 
-    static
+    /** The maximum number of utterances that may wait for playback. */
+    public static final int DEFAULT_PLAYBACK_QUEUE_CAPACITY = 256;
+
+    /** The default number of seconds a synthesis waits for MARY to start. */
+    public static final long DEFAULT_STARTUP_WAIT_SECONDS = 120;
+
+    private static volatile SynthesisEnginePool enginePool;
+    private static final Object enginePoolLock = new Object();
+    private static volatile SynthesisOptions options = SynthesisOptions.of(TTSVoice.DFKI_SPIKE_HSMM);
+    private static final AudioMixer mixer = new AudioMixer(AudioMixer.lineSink());
+    private static final PlaybackScheduler playbackScheduler = new PlaybackScheduler(DEFAULT_PLAYBACK_QUEUE_CAPACITY, mixer);
+    private static int pipelineLookAhead = DEFAULT_PIPELINE_LOOK_AHEAD;
+    private static final AudioCache audioCache = new AudioCache(DEFAULT_AUDIO_CACHE_SIZE);
+    private static final AdmissionController admissionController = new AdmissionController();
+    private static final ConcurrentHashMap<AudioCacheKey, CompletableFuture<PcmAudio>> inFlight = new ConcurrentHashMap<>();
+    private static final AtomicLong coalescedSyntheses = new AtomicLong();
+    private static volatile SynthesisWorkerPool workerPool;
+    private static volatile PersistentAudioCache persistentCache;
+    private static volatile Executor synthesisExecutor = SynthesisExecutors.newDefaultExecutor(DEFAULT_MAX_PENDING_SYNTHESES);
+    private static volatile long startupWaitNanos = TimeUnit.SECONDS.toNanos(DEFAULT_STARTUP_WAIT_SECONDS);
+
+    public synchronized static void setVolume(float volume)
     {
-        try
+        options = options.withGain(volume);
+    }
+
+    /**
+     * Selects the voice of all methods that don't take explicit options. A voice that is loaded on demand is loaded by
+     * its first synthesis, so this works before MARY has started and while the worker processes synthesize.
+     *
+     * @param voice
+     */
+    public synchronized static void setVoice(TTSVoice voice)
+    {
+        options = options.withVoice(voice);
+    }
+
+    /**
+     * @return The options that are used by all methods that don't take explicit options.
+     */
+    public static SynthesisOptions getOptions()
+    {
+        return options;
+    }
+
+    public static void setOptions(SynthesisOptions newOptions)
+    {
+        options = newOptions;
+    }
+
+    /**
+     * Replaces the synthesis engine pool with one of the given size, i.e. the number of syntheses that can run in
+     * parallel.
+     *
+     * @param size
+     * @throws MaryConfigurationException
+     */
+    public static void setEnginePoolSize(int size) throws MaryConfigurationException
+    {
+        SynthesisEnginePool pool = new SynthesisEnginePool(size);
+
+        synchronized (enginePoolLock)
         {
-            marytts = new BtLocalMaryInterface();
-            setVoice(TTSVoice.DFKI_SPIKE_HSMM);
+            enginePool = pool;
         }
-        catch (MaryConfigurationException e)
+    }
+
+    /**
+     * Creates the engine pool on first use, so that a JVM whose syntheses run in {@link #enableWorkerProcesses(int, List)
+     * worker processes} never creates one.
+     *
+     * @return
+     * @throws IllegalStateException If the pool could not be created.
+     */
+    public static SynthesisEnginePool getEnginePool()
+    {
+        SynthesisEnginePool pool = enginePool;
+
+        if (pool == null)
         {
-            e.printStackTrace();
+            synchronized (enginePoolLock)
+            {
+                pool = enginePool;
+
+                if (pool == null)
+                {
+                    try
+                    {
+                        pool = new SynthesisEnginePool();
+                    }
+                    catch (MaryConfigurationException e)
+                    {
+                        throw new IllegalStateException("Failed to create the synthesis engine pool", e);
+                    }
+
+                    enginePool = pool;
+                }
+            }
         }
+
+        return pool;
     }
 
-    public static void setVolume(float volume)
+    /**
+     * @param playSynchronized If true, an utterance only starts playing once the previous one has finished. If false
+     *                         utterances overlap.
+     */
+    public static void setPlaySynchronized(boolean playSynchronized)
     {
-        VolumeEffect volumeEffect = new VolumeEffect();
-        volumeEffect.setParams("amount:" + Float.toString(volume));
-        marytts.setAudioEffects(volumeEffect.getFullEffectAsString());
+        playbackScheduler.setWaitForCompletion(playSynchronized);
     }
 
-    public synchronized static void setVoice(TTSVoice voice)
+    /**
+     * @return The scheduler that plays all utterances, i.e. to read its backlog and wait time metrics.
+     */
+    public static PlaybackScheduler getPlaybackScheduler()
     {
-        marytts.setVoice(voice.getVoiceName());
+        return playbackScheduler;
     }
 
-    public static void setPlaySynchronized(boolean playSynchronized)
+    /**
+     * Stops the utterance that is currently playing and continues with the next queued one.
+     */
+    public static void skip()
     {
-        TextToSpeech.playSynchronized = playSynchronized;
+        playbackScheduler.skip();
     }
 
-    public static AudioInputStream getAudioInputStream(String text)
+    /**
+     * Removes all utterances that are waiting for playback.
+     */
+    public static void flush()
+    {
+        playbackScheduler.flush();
+    }
+
+    /**
+     * Stops the current utterance and removes all waiting ones.
+     */
+    public static void interrupt()
+    {
+        playbackScheduler.interrupt();
+    }
+
+    /**
+     * @param lookAhead The number of chunks that {@link #playAudioOfPipelined(String)} synthesizes ahead of the one
+     *                  that is playing.
+     */
+    public static void setPipelineLookAhead(int lookAhead)
+    {
+        if (lookAhead < 0)
+        {
+            throw new IllegalArgumentException("lookAhead must not be negative");
+        }
+
+        pipelineLookAhead = lookAhead;
+    }
+
+    /**
+     * Runs all following syntheses in the given number of separate worker JVMs instead of the engine pool of this
+     * one, including those of {@link #streamAudio(String, SynthesisOptions) streams}. Caching, effects and playback
+     * still happen here. Replaces the workers that were started before.
+     *
+     * <p>The engine pool of this JVM is only created once a synthesis runs here, so enabling the workers before the
+     * first synthesis keeps the MARY runtime out of this JVM.</p>
+     *
+     * @param workers The number of worker processes.
+     * @param jvmArgs Additional arguments for the worker JVMs, i.e. heap settings.
+     * @throws IOException If the workers could not be started.
+     */
+    public static synchronized void enableWorkerProcesses(int workers, List<String> jvmArgs) throws IOException
+    {
+        SynthesisWorkerPool previous = workerPool;
+        workerPool = new SynthesisWorkerPool(workers, jvmArgs);
+
+        if (previous != null)
+        {
+            previous.close();
+        }
+    }
+
+    /**
+     * Stops the worker processes, so that syntheses run in this JVM again.
+     */
+    public static synchronized void disableWorkerProcesses()
+    {
+        if (workerPool != null)
+        {
+            workerPool.close();
+            workerPool = null;
+        }
+    }
+
+    /**
+     * @return The worker processes or null if syntheses run in this JVM.
+     */
+    public static SynthesisWorkerPool getWorkerPool()
+    {
+        return workerPool;
+    }
+
+    /**
+     * @return The controller that admits syntheses depending on the available memory.
+     */
+    public static AdmissionController getAdmissionController()
+    {
+        return admissionController;
+    }
+
+    /**
+     * Changes the byte budget of the synthesized audio cache. A size of 0 disables caching.
+     *
+     * @param maxBytes
+     */
+    public static void setAudioCacheSize(long maxBytes)
+    {
+        audioCache.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * @return The cache of synthesized audio, i.e. to read its hit, miss and eviction counters.
+     */
+    public static AudioCache getAudioCache()
+    {
+        return audioCache;
+    }
+
+    /**
+     * Enables caching of the acoustic parameters of synthesized texts. Synthesizing a cached text again with different
+     * effects, volume or style then only runs the waveform stage. A size of 0 disables the cache.
+     *
+     * @param maxBytes
+     */
+    public static void setIntermediateCacheSize(long maxBytes)
+    {
+        BtLocalMaryInterface.getIntermediateCache().setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Adds a disk backed cache tier below the in-memory cache, so that synthesized audio survives restarts.
+     *
+     * @param directory The directory to keep the cache files in.
+     * @param maxBytes  The maximum size of the cache files.
+     * @throws IOException
+     */
+    public static synchronized void enablePersistentAudioCache(Path directory, long maxBytes) throws IOException
+    {
+        disablePersistentAudioCache();
+        persistentCache = new PersistentAudioCache(directory, maxBytes);
+    }
+
+    public static synchronized void disablePersistentAudioCache() throws IOException
+    {
+        if (persistentCache != null)
+        {
+            persistentCache.close();
+            persistentCache = null;
+        }
+    }
+
+    /**
+     * @return The disk backed cache or null if it is not enabled.
+     */
+    public static PersistentAudioCache getPersistentAudioCache()
+    {
+        return persistentCache;
+    }
+
+    /**
+     * Sets the executor that runs the syntheses started via {@link #synthesizeAsync(String, SynthesisOptions)}.
+     *
+     * @param executor
+     * @see SynthesisExecutors
+     */
+    public static void setSynthesisExecutor(Executor executor)
+    {
+        synthesisExecutor = executor;
+    }
+
+    /**
+     * @param maxWait How long a synthesis waits for MARY to start before it fails with a {@link MaryNotReadyException}.
+     * @param unit
+     */
+    public static void setStartupWait(long maxWait, TimeUnit unit)
+    {
+        startupWaitNanos = unit.toNanos(maxWait);
+    }
+
+    /**
+     * Starts MARY unless it is running and waits at most {@link #setStartupWait(long, TimeUnit) the startup wait} for
+     * it.
+     *
+     * @throws MaryNotReadyException If MARY is not running in time or failed to start.
+     * @throws SynthesisException    If the thread was interrupted while waiting.
+     */
+    static void awaitMaryStarted() throws SynthesisException
     {
         try
         {
-            return marytts.generateAudio(text);
+            BtMaryRuntimeUtils.ensureMaryStarted(startupWaitNanos, TimeUnit.NANOSECONDS);
         }
-        catch (SynthesisException e)
+        catch (InterruptedException e)
         {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            throw new SynthesisException("Interrupted while waiting for MARY to start", e);
         }
-        return null;
     }
 
-    public static void playAudioOf(AudioInputStream audioStream)
+    public static CompletableFuture<AudioInputStream> synthesizeAsync(String text)
     {
-        Threads.get().executeCached(() ->
+        return synthesizeAsync(text, options);
+    }
+
+    /**
+     * Synthesizes the given text on the synthesis executor.
+     *
+     * <p>The returned future fails with a {@link java.util.concurrent.RejectedExecutionException} if the executor
+     * is saturated and with a {@link SynthesisException} if the synthesis itself fails.</p>
+     *
+     * @param text
+     * @param options
+     * @return
+     */
+    public static CompletableFuture<AudioInputStream> synthesizeAsync(String text, SynthesisOptions options)
+    {
+        try
         {
-            synchronized (TextToSpeech.class)
+            return CompletableFuture.supplyAsync(() ->
             {
-                AudioPlayer ap = new AudioPlayer(audioStream);
-                ap.start();
+                try
+                {
+                    return generateAudio(text, options);
+                }
+                catch (SynthesisException e)
+                {
+                    throw new CompletionException(e);
+                }
+            }, synthesisExecutor);
+        }
+        catch (RuntimeException e)
+        {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-                if (playSynchronized)
+    /**
+     * Synthesizes all given texts in parallel on the engine pool.
+     *
+     * @param texts
+     * @param options
+     * @return One result per text, in the order of the texts. Failed items are reported in their result and don't
+     *         abort the batch.
+     * @throws InterruptedException
+     */
+    public static List<BatchResult> generateAudioBatch(List<String> texts, SynthesisOptions options) throws InterruptedException
+    {
+        BatchResult[] results = new BatchResult[texts.size()];
+        generateAudioBatch(texts, options, result -> results[result.getIndex()] = result);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Synthesizes all given texts in parallel on the engine pool, or the worker processes if they are enabled, and
+     * hands each result to the consumer as soon as it is complete, so that results can be written out instead of being
+     * held in memory.
+     *
+     * <p>Results arrive in completion order; {@link BatchResult#getIndex()} tells their position in the batch. The
+     * consumer is never called concurrently. At most twice as many items as there are engines or workers are in flight
+     * at the same time.</p>
+     *
+     * @param texts
+     * @param options
+     * @param consumer
+     * @throws InterruptedException
+     */
+    public static void generateAudioBatch(List<String> texts, SynthesisOptions options, Consumer<BatchResult> consumer) throws InterruptedException
+    {
+        SynthesisWorkerPool workers = workerPool;
+        Semaphore inFlight = new Semaphore((workers != null ? workers.getSize() : getEnginePool().getSize()) * 2);
+        CountDownLatch done = new CountDownLatch(texts.size());
+        Object consumerLock = new Object();
+
+        for (int i = 0; i < texts.size(); i++)
+        {
+            int index = i;
+            String text = texts.get(i);
+            CompletableFuture<PcmAudio> future;
+            inFlight.acquire();
+
+            try
+            {
+                future = CompletableFuture.supplyAsync(() ->
                 {
                     try
                     {
-                        ap.join();
+                        return getPcmAudio(text, options);
                     }
-                    catch (InterruptedException e)
+                    catch (SynthesisException e)
                     {
-                        e.printStackTrace();
+                        throw new CompletionException(e);
                     }
+                }, synthesisExecutor);
+            }
+            catch (RuntimeException e)
+            {
+                future = CompletableFuture.failedFuture(e);
+            }
+
+            future.whenComplete((audio, error) ->
+            {
+                try
+                {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+
+                    synchronized (consumerLock)
+                    {
+                        consumer.accept(new BatchResult(index, text, audio, cause));
+                    }
+                }
+                finally
+                {
+                    inFlight.release();
+                    done.countDown();
+                }
+            });
+        }
+
+        done.await();
+    }
+
+    /**
+     * Synthesizes the given text on the synthesis executor and encodes it into the given file type on the
+     * {@link AudioEncodingStage}. The synthesis worker is free again as soon as the PCM is available.
+     *
+     * @param text
+     * @param options
+     * @param type    I.e. MP3, Vorbis or WAVE.
+     * @return A future with the complete encoded file.
+     */
+    public static CompletableFuture<byte[]> synthesizeEncodedAsync(String text, SynthesisOptions options, AudioFileFormat.Type type)
+    {
+        try
+        {
+            return CompletableFuture.supplyAsync(() ->
+            {
+                try
+                {
+                    return getPcmAudio(text, options);
+                }
+                catch (SynthesisException e)
+                {
+                    throw new CompletionException(e);
+                }
+            }, synthesisExecutor).thenCompose(audio -> AudioEncodingStage.getDefault().encode(audio, type));
+        }
+        catch (RuntimeException e)
+        {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public static AudioInputStream getAudioInputStream(String text)
+    {
+        return getAudioInputStream(text, options);
+    }
+
+    public static AudioInputStream getAudioInputStream(String text, SynthesisOptions options)
+    {
+        try
+        {
+            return generateAudio(text, options);
+        }
+        catch (SynthesisException e)
+        {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Creates a publisher that delivers the PCM samples of the given text in chunks, sentence by sentence as soon as
+     * each sentence is synthesized. Synthesis starts once the first subscriber subscribes.
+     *
+     * @param text
+     * @param options
+     * @return
+     * @see PcmStreamPublisher#getFormat()
+     */
+    public static PcmStreamPublisher streamAudio(String text, SynthesisOptions options)
+    {
+        return new PcmStreamPublisher(SentenceSplitter.split(text, localeOf(options.getVoice()), DEFAULT_PIPELINE_CHUNK_LENGTH),
+                                      options,
+                                      null,
+                                      DEFAULT_STREAM_CHUNK_SIZE,
+                                      synthesisExecutor,
+                                      DEFAULT_STREAM_BUFFER_CAPACITY);
+    }
+
+    /**
+     * Synthesizes the given text and hands the PCM samples to the listener in chunks as soon as each sentence is
+     * synthesized.
+     *
+     * @param text
+     * @param options
+     * @param listener
+     * @return A future that completes after the last chunk was delivered.
+     */
+    public static CompletableFuture<Void> streamAudio(String text, SynthesisOptions options, Consumer<ByteBuffer> listener)
+    {
+        return streamAudio(streamAudio(text, options), listener);
+    }
+
+    /**
+     * Hands the chunks of the given publisher to the listener. The format of the samples is available from
+     * {@link PcmStreamPublisher#getFormat()} once the first chunk arrives.
+     *
+     * @param publisher
+     * @param listener
+     * @return A future that completes after the last chunk was delivered.
+     */
+    public static CompletableFuture<Void> streamAudio(PcmStreamPublisher publisher, Consumer<ByteBuffer> listener)
+    {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+
+        publisher.subscribe(new Flow.Subscriber<ByteBuffer>()
+        {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription)
+            {
+                this.subscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer chunk)
+            {
+                try
+                {
+                    listener.accept(chunk);
                 }
+                catch (RuntimeException e)
+                {
+                    this.subscription.cancel();
+                    done.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable)
+            {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete()
+            {
+                done.complete(null);
             }
         });
+
+        return done;
+    }
+
+    /**
+     * Writes the audio of the given text as a WAV file to the channel without intermediate copies.
+     *
+     * @param text
+     * @param options
+     * @param channel
+     * @return The number of written bytes.
+     * @throws SynthesisException
+     * @throws IOException
+     */
+    public static long writeWav(String text, SynthesisOptions options, WritableByteChannel channel) throws SynthesisException, IOException
+    {
+        return AudioWriter.writeWav(getPcmAudio(text, options), channel);
+    }
+
+    /**
+     * Writes the raw PCM samples of the given text to the channel without intermediate copies.
+     *
+     * @param text
+     * @param options
+     * @param channel
+     * @return The number of written bytes.
+     * @throws SynthesisException
+     * @throws IOException
+     */
+    public static long writePcm(String text, SynthesisOptions options, WritableByteChannel channel) throws SynthesisException, IOException
+    {
+        return AudioWriter.writePcm(getPcmAudio(text, options), channel);
+    }
+
+    /**
+     * Puts the audio of the given text as a WAV file into the buffer.
+     *
+     * @param text
+     * @param options
+     * @param target
+     * @throws SynthesisException
+     * @throws java.nio.BufferOverflowException If the buffer is too small.
+     */
+    public static void writeWav(String text, SynthesisOptions options, ByteBuffer target) throws SynthesisException
+    {
+        AudioWriter.writeWav(getPcmAudio(text, options), target);
+    }
+
+    /**
+     * Writes the audio of the given text as a WAV file. If caching is disabled, the synthesized stream is transferred
+     * to the file directly instead of being collected in memory first.
+     *
+     * @param text
+     * @param options
+     * @param file
+     * @return The number of written bytes.
+     * @throws SynthesisException
+     * @throws IOException
+     */
+    public static long writeWav(String text, SynthesisOptions options, Path file) throws SynthesisException, IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            if (!audioCache.isEnabled() && persistentCache == null)
+            {
+                try (AudioInputStream audio = generateAudio(text, options))
+                {
+                    return AudioWriter.writeWav(audio, channel);
+                }
+            }
+
+            return AudioWriter.writeWav(getPcmAudio(text, options), channel);
+        }
+    }
+
+    private static AudioInputStream generateAudio(String text, SynthesisOptions options) throws SynthesisException
+    {
+        return getPcmAudio(text, options).toAudioInputStream();
+    }
+
+    /**
+     * Returns the audio of the given text from the caches or synthesizes it if it is not cached yet. The gain and
+     * post-synthesis effects of the given options are applied to a copy of the cached audio.
+     *
+     * <p>Concurrent calls with the same text, voice, synthesis effects and style share a single synthesis.</p>
+     *
+     * @param text
+     * @param options
+     * @return
+     * @throws SynthesisException
+     */
+    public static PcmAudio getPcmAudio(String text, SynthesisOptions options) throws SynthesisException
+    {
+        return applyPostEffects(getSynthesizedAudio(text, options), options);
+    }
+
+    /**
+     * Like {@link #getPcmAudio(String, SynthesisOptions)}, but only answers from the in-memory audio cache, so that
+     * callers can serve cached audio without MARY.
+     *
+     * @param text
+     * @param options
+     * @return The audio or null if it is not cached.
+     * @throws SynthesisException If the post-synthesis effects failed.
+     */
+    static PcmAudio getCachedPcmAudio(String text, SynthesisOptions options) throws SynthesisException
+    {
+        PcmAudio audio = audioCache.get(options.cacheKey(text));
+        return audio == null ? null : applyPostEffects(audio, options);
+    }
+
+    private static PcmAudio applyPostEffects(PcmAudio audio, SynthesisOptions options) throws SynthesisException
+    {
+        try
+        {
+            return PcmEffects.apply(audio, options.getGain(), options.getPostEffects());
+        }
+        catch (IOException e)
+        {
+            throw new SynthesisException("Failed to apply audio effects", e);
+        }
     }
 
-    public static void playAudioOf(String text)
+    /**
+     * @return The number of syntheses that were saved because an identical one was already in progress.
+     */
+    public static long getCoalescedSynthesisCount()
     {
-        playAudioOf(getAudioInputStream(text));
+        return coalescedSyntheses.get();
     }
 
-    public static synchronized void setup()
+    private static PcmAudio getSynthesizedAudio(String text, SynthesisOptions options) throws SynthesisException
+    {
+        AudioCacheKey key = options.cacheKey(text);
+        PcmAudio audio = audioCache.get(key);
+
+        if (audio != null)
+        {
+            return audio;
+        }
+
+        // identical requests that arrive while this one is in progress wait for its result instead of synthesizing
+        CompletableFuture<PcmAudio> flight = new CompletableFuture<>();
+        CompletableFuture<PcmAudio> existing = inFlight.putIfAbsent(key, flight);
+
+        if (existing != null)
+        {
+            coalescedSyntheses.incrementAndGet();
+            return awaitInFlight(existing);
+        }
+
+        try
+        {
+            audio = loadOrSynthesize(text, options, key);
+            flight.complete(audio);
+            return audio;
+        }
+        catch (Throwable e)
+        {
+            // also errors, i.e. an OutOfMemoryError, so that waiting requests don't hang
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        finally
+        {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private static PcmAudio awaitInFlight(CompletableFuture<PcmAudio> flight) throws SynthesisException
+    {
+        try
+        {
+            return flight.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SynthesisException("Interrupted while waiting for an identical synthesis", e);
+        }
+        catch (ExecutionException e)
+        {
+            // keeps the type, i.e. an AdmissionRejectedException, for the callers of all coalesced requests
+            if (e.getCause() instanceof SynthesisException)
+            {
+                throw (SynthesisException)e.getCause();
+            }
+            else if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException)e.getCause();
+            }
+
+            throw new SynthesisException("Identical synthesis failed", e.getCause());
+        }
+    }
+
+    private static PcmAudio loadOrSynthesize(String text, SynthesisOptions options, AudioCacheKey key) throws SynthesisException
+    {
+        PersistentAudioCache diskCache = persistentCache;
+        PcmAudio audio = null;
+
+        if (diskCache != null)
+        {
+            try
+            {
+                audio = diskCache.get(key);
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+
+            if (audio != null)
+            {
+                audioCache.put(key, audio);
+            }
+        }
+
+        if (audio == null)
+        {
+            audio = synthesize(text, options);
+            audioCache.put(key, audio);
+
+            if (diskCache != null)
+            {
+                try
+                {
+                    diskCache.put(key, audio);
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return audio;
+    }
+
+    private static PcmAudio synthesize(String text, SynthesisOptions options) throws SynthesisException
+    {
+        SynthesisWorkerPool workers = workerPool;
+
+        if (workers != null)
+        {
+            // the workers admit requests against their own memory
+            return workers.synthesizeNow(text, options);
+        }
+
+        awaitMaryStarted();
+        VoiceLoader.ensureLoaded(options.getVoice());
+
+        // registered as in-flight, so that a shutdown waits for this synthesis
+        BtMary.beginRequest();
+
+        try (AdmissionController.Permit permit = admissionController.admit(text, options))
+        {
+            return getEnginePool().execute(options, engine ->
+            {
+                try
+                {
+                    return PcmAudio.read(engine.generateAudio(text));
+                }
+                catch (IOException e)
+                {
+                    throw new SynthesisException("Failed to read synthesized audio", e);
+                }
+            });
+        }
+        finally
+        {
+            BtMary.endRequest();
+        }
+    }
+
+    /**
+     * @return The mixer that plays all audio on the single output line.
+     */
+    public static AudioMixer getMixer()
+    {
+        return mixer;
+    }
+
+    /**
+     * Plays the given audio right away, mixed over whatever is currently playing, i.e. for alert tones. The audio
+     * bypasses the playback queue and is neither skipped nor flushed with it.
+     *
+     * @param audioStream
+     * @param gain        Linear factor for the samples of the given audio.
+     * @return The handle to change the gain of or stop the audio.
+     */
+    public static AudioMixer.Track playOverlay(AudioInputStream audioStream, float gain)
+    {
+        return mixer.play(audioStream, gain);
+    }
+
+    public static CompletableFuture<Void> playAudioOf(AudioInputStream audioStream)
+    {
+        return playAudioOf(audioStream, PlaybackPriority.NORMAL);
+    }
+
+    /**
+     * Queues the given audio for playback.
+     *
+     * @param audioStream
+     * @param priority
+     * @return A future that completes once the audio has been played.
+     */
+    public static CompletableFuture<Void> playAudioOf(AudioInputStream audioStream, PlaybackPriority priority)
+    {
+        return playbackScheduler.submit(audioStream, priority);
+    }
+
+    public static CompletableFuture<Void> playAudioOf(String text)
+    {
+        return playAudioOf(text, PlaybackPriority.NORMAL);
+    }
+
+    public static CompletableFuture<Void> playAudioOf(String text, PlaybackPriority priority)
+    {
+        return playAudioOf(getAudioInputStream(text), priority);
+    }
+
+    /**
+     * Plays the given text sentence by sentence, synthesizing the next sentences while the current one is playing.
+     *
+     * <p>Use this for long texts, where waiting for the synthesis of the whole text would delay the first audio
+     * noticeably.</p>
+     *
+     * @param text
+     * @param priority
+     * @return A future that completes with the timings once the playback has finished.
+     */
+    public static CompletableFuture<PipelinedPlayback.Report> playAudioOfPipelined(String text, PlaybackPriority priority)
+    {
+        SynthesisOptions currentOptions = options;
+        PipelinedPlayback playback = new PipelinedPlayback(SentenceSplitter.split(text, localeOf(currentOptions.getVoice()), DEFAULT_PIPELINE_CHUNK_LENGTH),
+                                                           currentOptions,
+                                                           pipelineLookAhead);
+
+        return playbackScheduler.submit(playback, priority).thenApply(v -> playback.getReport());
+    }
+
+    public static CompletableFuture<PipelinedPlayback.Report> playAudioOfPipelined(String text)
+    {
+        return playAudioOfPipelined(text, PlaybackPriority.NORMAL);
+    }
+
+    /**
+     * Resolves the locale to split the text of the given voice into sentences. The known voices are resolved without
+     * the local voice registry, which is empty before startup and in worker mode.
+     *
+     * @param voiceName The voice or null for the default voice.
+     * @return
+     */
+    static Locale localeOf(String voiceName)
+    {
+        TTSVoice known = TTSVoice.forName(voiceName);
+
+        if (known != null)
+        {
+            return known.getLocale();
+        }
+
+        Voice voice = voiceName == null ? null : Voice.getVoice(voiceName);
+        return voice == null ? Locale.US : voice.getLocale();
+    }
+
+    /**
+     * Warms up the synthesis with {@link WarmUp#DEFAULT_CORPUS}, all loaded voices and the configured effects until the
+     * latency converges. MARY is started first unless the syntheses run in {@link #getWorkerPool() worker processes},
+     * which are warmed up instead. Nothing is played.
+     *
+     * @return The per iteration latencies, or null if MARY could not be started or a synthesis failed.
+     */
+    public static synchronized WarmUp.Report setup()
     {
         System.out.println("Setting up TextToSpeech components.");
-        AudioPlayer ap = new AudioPlayer(getAudioInputStream("."));
-        ap.start();
+
+        try
+        {
+            return new WarmUp(WarmUp.DEFAULT_CORPUS).run();
+        }
+        catch (SynthesisException | MaryNotReadyException e)
+        {
+            e.printStackTrace();
+        }
+        return null;
     }
-}
\ No newline at end of file
+}
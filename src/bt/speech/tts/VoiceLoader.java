@@ -0,0 +1,157 @@
+package bt.speech.tts;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import marytts.htsengine.HMMVoice;
+import marytts.modules.synthesis.Voice;
+import marytts.modules.synthesis.WaveformSynthesizer;
+
+/**
+ * Restricts the voices that MARY loads during startup and loads the remaining {@link TTSVoice}s on demand.
+ *
+ * <p>MARY's HMM synthesizer loads every voice listed in the <code>hmm.voices.list</code> property on startup. If
+ * startup voices are configured via {@link #setStartupVoices(Collection, boolean)}, that property is overridden with
+ * only those voices. Any other voice is loaded the first time it is selected via
+ * {@link BtLocalMaryInterface#setVoice(String)} or synthesized through {@link TextToSpeech}, or in a background thread
+ * once MARY is running.</p>
+ *
+ * @author &#8904
+ */
+public final class VoiceLoader
+{
+    private static final String HMM_VOICES_PROPERTY = "hmm.voices.list";
+
+    private static volatile boolean lazy;
+    private static boolean loadRemainingInBackground;
+
+    private VoiceLoader()
+    {
+    }
+
+    /**
+     * Configures which voices are loaded during startup. Must be called before MARY is started.
+     *
+     * @param voices                    The voices to load during startup. Must not be empty, since further voices are
+     *                                  loaded with the synthesizer of an already loaded one.
+     * @param loadRemainingInBackground If true, all other voices are loaded in a background thread as soon as MARY is
+     *                                  running.
+     */
+    public static synchronized void setStartupVoices(Collection<TTSVoice> voices, boolean loadRemainingInBackground)
+    {
+        if (BtMary.currentState() != BtMary.STATE_OFF)
+        {
+            throw new IllegalStateException("Startup voices must be configured before MARY is started");
+        }
+
+        if (voices.isEmpty())
+        {
+            throw new IllegalArgumentException("At least one voice has to be loaded during startup");
+        }
+
+        Set<String> names = new TreeSet<>();
+
+        for (TTSVoice voice : voices)
+        {
+            names.add(voice.getVoiceName());
+        }
+
+        System.setProperty(HMM_VOICES_PROPERTY, String.join(" ", names));
+        VoiceLoader.loadRemainingInBackground = loadRemainingInBackground;
+        lazy = true;
+    }
+
+    /**
+     * @return true if voices are loaded on demand.
+     */
+    public static boolean isLazy()
+    {
+        return lazy;
+    }
+
+    public static boolean isLoaded(String voiceName)
+    {
+        return Voice.getVoice(voiceName) != null;
+    }
+
+    /**
+     * Loads the given voice if voices are loaded on demand and it is not loaded yet.
+     *
+     * @param voiceName
+     * @throws IllegalArgumentException If the voice can not be loaded.
+     */
+    public static void ensureLoaded(String voiceName)
+    {
+        if (!lazy || voiceName == null || isLoaded(voiceName))
+        {
+            return;
+        }
+
+        synchronized (VoiceLoader.class)
+        {
+            if (isLoaded(voiceName))
+            {
+                return;
+            }
+
+            WaveformSynthesizer synthesizer = findHmmSynthesizer();
+
+            if (synthesizer == null)
+            {
+                throw new IllegalStateException("No HMM voice is loaded to load voice " + voiceName + " with");
+            }
+
+            try
+            {
+                Voice.registerVoice(new HMMVoice(voiceName, synthesizer));
+            }
+            catch (Exception e)
+            {
+                throw new IllegalArgumentException("Cannot load voice: " + voiceName, e);
+            }
+        }
+    }
+
+    /**
+     * Called by {@link BtMary} once the startup is complete.
+     */
+    static synchronized void startupComplete()
+    {
+        if (lazy && loadRemainingInBackground)
+        {
+            Thread loader = new Thread(VoiceLoader::loadRemaining, "TextToSpeech-voice-loader");
+            loader.setDaemon(true);
+            loader.setPriority(Thread.MIN_PRIORITY);
+            loader.start();
+        }
+    }
+
+    private static void loadRemaining()
+    {
+        for (TTSVoice voice : TTSVoice.values())
+        {
+            try
+            {
+                ensureLoaded(voice.getVoiceName());
+            }
+            catch (RuntimeException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static WaveformSynthesizer findHmmSynthesizer()
+    {
+        for (Voice voice : Voice.getAvailableVoices())
+        {
+            if (voice instanceof HMMVoice)
+            {
+                return voice.synthesizer();
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,246 @@
+package bt.speech.tts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import marytts.exceptions.SynthesisException;
+
+/**
+ * Repeatedly synthesizes a corpus with every configured voice and effect so that the JIT compiles the synthesis
+ * code paths before the first real request arrives.
+ *
+ * <p>The synthesized audio is discarded, no audio device is opened and the audio caches are bypassed. While the
+ * syntheses run in {@link TextToSpeech#getWorkerPool() worker processes}, the workers are warmed up instead of this
+ * JVM. The warm-up either runs a fixed number of iterations or until the latency of an iteration changes by less than
+ * the configured threshold compared to the previous one. Without anything to synthesize it returns an empty report.</p>
+ *
+ * @author &#8904
+ */
+public class WarmUp
+{
+    /** A small corpus that covers sentence types, numbers, abbreviations and punctuation. */
+    public static final List<String> DEFAULT_CORPUS = Collections.unmodifiableList(Arrays.asList(
+            "Please wait.",
+            "The connection has been lost, trying to reconnect.",
+            "Is this the right number? Please confirm by saying yes or no.",
+            "Your order number 4711 will arrive on March 3rd at 10:30 a.m.",
+            "Dr. Smith said: \"This is a test of the text to speech system!\""));
+
+    private final List<String> corpus;
+    private List<SynthesisOptions> optionSets;
+    private int minIterations = 3;
+    private int maxIterations = 20;
+    private double convergenceThreshold = 0.05;
+
+    /**
+     * Creates a warm-up that runs the given corpus with all loaded voices, each once without effects and once with
+     * the effects of {@link TextToSpeech#getOptions()}. The voices are resolved when the warm-up runs, after MARY has
+     * started.
+     *
+     * @param corpus
+     */
+    public WarmUp(List<String> corpus)
+    {
+        this(corpus, null);
+    }
+
+    public WarmUp(List<String> corpus, List<SynthesisOptions> optionSets)
+    {
+        this.corpus = corpus;
+        this.optionSets = optionSets;
+    }
+
+    /**
+     * Runs exactly the given number of iterations.
+     *
+     * @param iterations
+     * @return this instance for chaining.
+     */
+    public WarmUp setIterations(int iterations)
+    {
+        this.minIterations = iterations;
+        this.maxIterations = iterations;
+        return this;
+    }
+
+    /**
+     * Runs until the latency of an iteration differs by less than the given fraction from the previous iteration.
+     *
+     * @param threshold     I.e. 0.05 to stop once the latency changes by less than 5%.
+     * @param minIterations
+     * @param maxIterations
+     * @return this instance for chaining.
+     */
+    public WarmUp setConvergence(double threshold, int minIterations, int maxIterations)
+    {
+        this.convergenceThreshold = threshold;
+        this.minIterations = minIterations;
+        this.maxIterations = maxIterations;
+        return this;
+    }
+
+    public Report run() throws SynthesisException
+    {
+        List<Long> latencies = new ArrayList<>();
+        boolean converged = false;
+
+        if (this.optionSets == null)
+        {
+            this.optionSets = defaultOptionSets();
+        }
+
+        if (this.corpus.isEmpty() || this.optionSets.isEmpty())
+        {
+            return new Report(latencies, false, 0);
+        }
+
+        while (latencies.size() < this.maxIterations && !converged)
+        {
+            long start = System.nanoTime();
+
+            for (SynthesisOptions options : this.optionSets)
+            {
+                for (String text : this.corpus)
+                {
+                    synthesizeAndDiscard(text, options);
+                }
+            }
+
+            latencies.add(System.nanoTime() - start);
+
+            if (latencies.size() >= Math.max(2, this.minIterations))
+            {
+                double previous = latencies.get(latencies.size() - 2);
+                double current = latencies.get(latencies.size() - 1);
+                converged = Math.abs(current - previous) / previous < this.convergenceThreshold;
+            }
+        }
+
+        return new Report(latencies, converged, this.corpus.size() * this.optionSets.size());
+    }
+
+    private static void synthesizeAndDiscard(String text, SynthesisOptions options) throws SynthesisException
+    {
+        SynthesisWorkerPool workers = TextToSpeech.getWorkerPool();
+
+        if (workers != null)
+        {
+            workers.synthesizeNow(text, options);
+            return;
+        }
+
+        TextToSpeech.awaitMaryStarted();
+        VoiceLoader.ensureLoaded(options.getVoice());
+        TextToSpeech.getEnginePool().execute(options, engine ->
+        {
+            byte[] buffer = new byte[8192];
+
+            try (InputStream audio = engine.generateAudio(text))
+            {
+                while (audio.read(buffer) >= 0)
+                {
+                }
+            }
+            catch (IOException e)
+            {
+                throw new SynthesisException("Failed to read synthesized audio", e);
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * The workers load their voices on demand, so all known voices are warmed up through them. Locally only the voices
+     * that MARY loaded are, which requires MARY to be started first.
+     */
+    private static List<SynthesisOptions> defaultOptionSets() throws SynthesisException
+    {
+        List<SynthesisOptions> optionSets = new ArrayList<>();
+        String effects = TextToSpeech.getOptions().getEffects();
+        boolean workers = TextToSpeech.getWorkerPool() != null;
+
+        if (!workers)
+        {
+            TextToSpeech.awaitMaryStarted();
+        }
+
+        for (TTSVoice voice : TTSVoice.values())
+        {
+            if (workers || VoiceLoader.isLoaded(voice.getVoiceName()))
+            {
+                optionSets.add(SynthesisOptions.of(voice));
+
+                if (effects != null)
+                {
+                    optionSets.add(SynthesisOptions.of(voice).withEffects(effects));
+                }
+            }
+        }
+
+        return optionSets;
+    }
+
+    /**
+     * Latencies of the iterations of one warm-up.
+     */
+    public static final class Report
+    {
+        private final List<Long> latencies;
+        private final boolean converged;
+        private final int synthesesPerIteration;
+
+        private Report(List<Long> latencies, boolean converged, int synthesesPerIteration)
+        {
+            this.latencies = Collections.unmodifiableList(latencies);
+            this.converged = converged;
+            this.synthesesPerIteration = synthesesPerIteration;
+        }
+
+        /**
+         * @return The nanoseconds each iteration took.
+         */
+        public List<Long> getIterationLatencies()
+        {
+            return this.latencies;
+        }
+
+        public int getIterations()
+        {
+            return this.latencies.size();
+        }
+
+        /**
+         * @return true if the warm-up stopped because the latency converged.
+         */
+        public boolean isConverged()
+        {
+            return this.converged;
+        }
+
+        public int getSynthesesPerIteration()
+        {
+            return this.synthesesPerIteration;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder("WarmUp.Report[iterations=").append(getIterations())
+                                                                            .append(", converged=").append(this.converged)
+                                                                            .append(", syntheses per iteration=").append(this.synthesesPerIteration)
+                                                                            .append(", latencies=");
+
+            for (int i = 0; i < this.latencies.size(); i++)
+            {
+                sb.append(i == 0 ? "" : ", ").append(this.latencies.get(i) / 1000000).append(" ms");
+            }
+
+            return sb.append("]").toString();
+        }
+    }
+}
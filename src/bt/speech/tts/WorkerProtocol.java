@@ -0,0 +1,176 @@
+package bt.speech.tts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Binary framing between {@link SynthesisWorkerPool} and {@link SynthesisWorker}.
+ *
+ * <p>Every frame starts with its length as an int, followed by the id of the request it belongs to as a long. A
+ * request carries the text, voice, synthesis effects and style. A response carries a status byte, followed by the
+ * audio format and the samples on success or by a message otherwise. Strings are written as their UTF-8 length and
+ * bytes, with -1 for null. Several requests can be in flight on one connection; responses are matched by id.</p>
+ *
+ * @author &#8904
+ */
+public final class WorkerProtocol
+{
+    /** The line a worker prints to its standard output once it accepts connections, followed by its port. */
+    public static final String READY_PREFIX = "BTSPEECH-WORKER-READY ";
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_FAILED = 1;
+    public static final byte STATUS_REJECTED = 2;
+
+    private WorkerProtocol()
+    {
+    }
+
+    public static void writeRequest(DataOutputStream out, long id, String text, SynthesisOptions options) throws IOException
+    {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(64 + text.length() * 2);
+        DataOutputStream data = new DataOutputStream(frame);
+        data.writeLong(id);
+        writeString(data, text);
+        writeString(data, options.getVoice());
+        writeString(data, options.getSynthesisEffects());
+        writeString(data, options.getStyle());
+        writeFrame(out, frame);
+    }
+
+    /**
+     * Reads the rest of a request frame after its length.
+     */
+    public static Request readRequest(DataInputStream in) throws IOException
+    {
+        in.readInt();
+        long id = in.readLong();
+        String text = readString(in);
+        SynthesisOptions options = new SynthesisOptions(readString(in), readString(in), readString(in));
+        return new Request(id, text, options);
+    }
+
+    public static void writeAudio(DataOutputStream out, long id, PcmAudio audio) throws IOException
+    {
+        AudioFormat format = audio.getFormat();
+        ByteBuffer samples = audio.getData();
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(32 + samples.remaining());
+        DataOutputStream data = new DataOutputStream(frame);
+        data.writeLong(id);
+        data.writeByte(STATUS_OK);
+        data.writeFloat(format.getSampleRate());
+        data.writeInt(format.getSampleSizeInBits());
+        data.writeInt(format.getChannels());
+        data.writeBoolean(AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()));
+        data.writeBoolean(format.isBigEndian());
+        data.writeInt(samples.remaining());
+
+        byte[] bytes = new byte[samples.remaining()];
+        samples.get(bytes);
+        data.write(bytes);
+        writeFrame(out, frame);
+    }
+
+    public static void writeError(DataOutputStream out, long id, byte status, String message) throws IOException
+    {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(64);
+        DataOutputStream data = new DataOutputStream(frame);
+        data.writeLong(id);
+        data.writeByte(status);
+        writeString(data, message);
+        writeFrame(out, frame);
+    }
+
+    /**
+     * Reads a complete response frame.
+     */
+    public static Response readResponse(DataInputStream in) throws IOException
+    {
+        in.readInt();
+        long id = in.readLong();
+        byte status = in.readByte();
+
+        if (status != STATUS_OK)
+        {
+            return new Response(id, status, null, readString(in));
+        }
+
+        AudioFormat format = new AudioFormat(in.readFloat(), in.readInt(), in.readInt(), in.readBoolean(), in.readBoolean());
+        byte[] samples = new byte[in.readInt()];
+        in.readFully(samples);
+        return new Response(id, status, new PcmAudio(format, ByteBuffer.wrap(samples)), null);
+    }
+
+    private static void writeFrame(DataOutputStream out, ByteArrayOutputStream frame) throws IOException
+    {
+        synchronized (out)
+        {
+            out.writeInt(frame.size());
+            frame.writeTo(out);
+            out.flush();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        if (value == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+
+        if (length < 0)
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static final class Request
+    {
+        public final long id;
+        public final String text;
+        public final SynthesisOptions options;
+
+        private Request(long id, String text, SynthesisOptions options)
+        {
+            this.id = id;
+            this.text = text;
+            this.options = options;
+        }
+    }
+
+    public static final class Response
+    {
+        public final long id;
+        public final byte status;
+        public final PcmAudio audio;
+        public final String message;
+
+        private Response(long id, byte status, PcmAudio audio, String message)
+        {
+            this.id = id;
+            this.status = status;
+            this.audio = audio;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package bt.speech.tts;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author &#8904
+ */
+public class AdmissionControllerTest
+{
+    private static final SynthesisOptions OPTIONS = new SynthesisOptions(null, null, null);
+
+    /**
+     * @return A text whose estimate exceeds the maximum heap, so that it never fits next to another synthesis.
+     */
+    private static String hugeText()
+    {
+        long length = Runtime.getRuntime().maxMemory() / AdmissionController.PROCESSING_BYTES_PER_CHAR + 1;
+        return "a".repeat((int)Math.min(length, Integer.MAX_VALUE - 8));
+    }
+
+    @Test
+    public void estimatesFromTheTextLength()
+    {
+        long perChar = (long)(16000 * 2 * AdmissionController.SECONDS_PER_CHAR) + AdmissionController.PROCESSING_BYTES_PER_CHAR;
+
+        assertEquals(AdmissionController.BASE_ESTIMATE, AdmissionController.estimate("", OPTIONS));
+        assertEquals(AdmissionController.BASE_ESTIMATE + 10 * perChar, AdmissionController.estimate("0123456789", OPTIONS));
+    }
+
+    @Test
+    public void reservesUntilThePermitIsClosed() throws Exception
+    {
+        AdmissionController controller = new AdmissionController();
+        AdmissionController.Permit permit = controller.admit("hello", OPTIONS);
+
+        assertEquals(AdmissionController.estimate("hello", OPTIONS), controller.getReservedBytes());
+        assertEquals(1, controller.getAdmittedCount());
+
+        permit.close();
+        permit.close();
+
+        assertEquals(0, controller.getReservedBytes());
+    }
+
+    @Test
+    public void disabledControllerReservesNothing() throws Exception
+    {
+        AdmissionController controller = new AdmissionController();
+        controller.setEnabled(false);
+
+        try (AdmissionController.Permit permit = controller.admit(hugeText(), OPTIONS))
+        {
+            assertEquals(0, controller.getReservedBytes());
+        }
+    }
+
+    @Test
+    public void alwaysAdmitsWhenNothingElseRuns() throws Exception
+    {
+        AdmissionController controller = new AdmissionController();
+        controller.setMaxWait(0, TimeUnit.SECONDS);
+
+        try (AdmissionController.Permit permit = controller.admit(hugeText(), OPTIONS))
+        {
+            assertEquals(1, controller.getAdmittedCount());
+        }
+    }
+
+    @Test
+    public void rejectsWhatDoesNotFitNextToRunningSyntheses() throws Exception
+    {
+        AdmissionController controller = new AdmissionController();
+        controller.setMaxWait(0, TimeUnit.SECONDS);
+        String text = hugeText();
+
+        try (AdmissionController.Permit permit = controller.admit("hello", OPTIONS))
+        {
+            AdmissionRejectedException e = assertThrows(AdmissionRejectedException.class, () -> controller.admit(text, OPTIONS));
+
+            assertEquals(AdmissionController.estimate(text, OPTIONS), e.getEstimatedBytes());
+            assertEquals(1, controller.getRejectedCount());
+            assertEquals(0, controller.getWaitingCount());
+        }
+    }
+
+    @Test
+    public void waitsUntilRunningSynthesesComplete() throws Exception
+    {
+        AdmissionController controller = new AdmissionController();
+        controller.setMaxWait(30, TimeUnit.SECONDS);
+        String text = hugeText();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AdmissionController.Permit running = controller.admit("hello", OPTIONS);
+
+        Thread waiting = new Thread(() ->
+        {
+            try (AdmissionController.Permit permit = controller.admit(text, OPTIONS))
+            {
+            }
+            catch (Throwable t)
+            {
+                failure.set(t);
+            }
+        });
+        waiting.start();
+
+        while (controller.getWaitingCount() == 0 && waiting.isAlive())
+        {
+            Thread.sleep(10);
+        }
+
+        running.close();
+        waiting.join(TimeUnit.SECONDS.toMillis(30));
+
+        assertNull(failure.get());
+        assertEquals(2, controller.getAdmittedCount());
+        assertEquals(2, controller.getWaitTime().getCount());
+        assertEquals(0, controller.getReservedBytes());
+    }
+}
@@ -0,0 +1,127 @@
+package bt.speech.tts;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.ByteBuffer;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author &#8904
+ */
+public class AudioCacheTest
+{
+    private static final int AUDIO_SIZE = 1000;
+
+    private static AudioCacheKey key(String text)
+    {
+        return new AudioCacheKey(text, "voice", null, null);
+    }
+
+    private static PcmAudio audio(int size)
+    {
+        return new PcmAudio(new AudioFormat(16000, 16, 1, true, false), ByteBuffer.allocate(size));
+    }
+
+    private static long entrySize(String text)
+    {
+        return key(text).estimatedSize() + AUDIO_SIZE;
+    }
+
+    @Test
+    public void returnsCachedAudio()
+    {
+        AudioCache cache = new AudioCache(1024 * 1024);
+        PcmAudio audio = audio(AUDIO_SIZE);
+
+        assertNull(cache.get(key("a")));
+        cache.put(key("a"), audio);
+
+        assertSame(audio, cache.get(key("a")));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(entrySize("a"), cache.getCurrentBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed()
+    {
+        AudioCache cache = new AudioCache(2 * entrySize("a") + AUDIO_SIZE / 2);
+        cache.put(key("a"), audio(AUDIO_SIZE));
+        cache.put(key("b"), audio(AUDIO_SIZE));
+
+        // makes b the least recently used entry
+        cache.get(key("a"));
+        cache.put(key("c"), audio(AUDIO_SIZE));
+
+        assertNull(cache.get(key("b")));
+        assertNotNull(cache.get(key("a")));
+        assertNotNull(cache.get(key("c")));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+        assertEquals(2 * entrySize("a"), cache.getCurrentBytes());
+    }
+
+    @Test
+    public void skipsEntriesLargerThanTheBudget()
+    {
+        AudioCache cache = new AudioCache(AUDIO_SIZE);
+        cache.put(key("a"), audio(AUDIO_SIZE));
+
+        assertNull(cache.get(key("a")));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getCurrentBytes());
+    }
+
+    @Test
+    public void zeroBudgetDisablesTheCache()
+    {
+        AudioCache cache = new AudioCache(0);
+        cache.put(key("a"), audio(1));
+
+        assertFalse(cache.isEnabled());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void replacingAnEntryReleasesItsOldSize()
+    {
+        AudioCache cache = new AudioCache(1024 * 1024);
+        cache.put(key("a"), audio(AUDIO_SIZE));
+        cache.put(key("a"), audio(AUDIO_SIZE));
+
+        assertEquals(1, cache.size());
+        assertEquals(entrySize("a"), cache.getCurrentBytes());
+    }
+
+    @Test
+    public void shrinkingTheBudgetEvicts()
+    {
+        AudioCache cache = new AudioCache(1024 * 1024);
+        cache.put(key("a"), audio(AUDIO_SIZE));
+        cache.put(key("b"), audio(AUDIO_SIZE));
+        cache.setMaxBytes(entrySize("b"));
+
+        assertNull(cache.get(key("a")));
+        assertNotNull(cache.get(key("b")));
+        assertEquals(entrySize("b"), cache.getCurrentBytes());
+    }
+
+    @Test
+    public void clearRemovesAllEntries()
+    {
+        AudioCache cache = new AudioCache(1024 * 1024);
+        cache.put(key("a"), audio(AUDIO_SIZE));
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getCurrentBytes());
+        assertNull(cache.get(key("a")));
+    }
+}
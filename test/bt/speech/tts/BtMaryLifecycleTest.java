@@ -0,0 +1,66 @@
+package bt.speech.tts;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author &#8904
+ */
+public class BtMaryLifecycleTest
+{
+    private static void assertNotRunning()
+    {
+        assertEquals(BtMary.STATE_OFF, BtMary.currentState());
+
+        MaryNotReadyException e = assertThrows(MaryNotReadyException.class, () -> BtMary.awaitRunning(0, TimeUnit.SECONDS));
+        assertEquals(BtMary.STATE_OFF, e.getState());
+
+        assertThrows(MaryNotReadyException.class, BtMary::beginRequest);
+        assertThrows(IllegalStateException.class, BtMary::shutdown);
+    }
+
+    @Test
+    public void refusesEverythingWhileOff()
+    {
+        assertNotRunning();
+    }
+
+    /**
+     * Starts MARY and shuts it down again. If MARY can't start in this environment, the failed startup has to leave
+     * the lifecycle off, so that it can be retried.
+     */
+    @Test
+    public void startsAndShutsDownOrReturnsToOff() throws Exception
+    {
+        CompletableFuture<Void> readiness = BtMary.startAsync();
+
+        try
+        {
+            readiness.get(5, TimeUnit.MINUTES);
+        }
+        catch (ExecutionException e)
+        {
+            assertNotRunning();
+            return;
+        }
+
+        assertEquals(BtMary.STATE_RUNNING, BtMary.currentState());
+        BtMary.awaitRunning(0, TimeUnit.SECONDS);
+        assertSame(readiness, BtMary.startAsync());
+
+        BtMary.beginRequest();
+        BtMary.endRequest();
+
+        BtMary.shutdown();
+        assertNotRunning();
+        assertTrue(readiness.isDone());
+    }
+}
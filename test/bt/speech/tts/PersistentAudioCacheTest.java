@@ -0,0 +1,143 @@
+package bt.speech.tts;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author &#8904
+ */
+public class PersistentAudioCacheTest
+{
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+    private static final AudioFormat OTHER_FORMAT = new AudioFormat(48000, 16, 1, true, false);
+
+    @TempDir
+    Path directory;
+
+    private static AudioCacheKey key(String text, String voice)
+    {
+        return new AudioCacheKey(text, voice, null, null);
+    }
+
+    private static PcmAudio audio(AudioFormat format, int size, int seed)
+    {
+        byte[] samples = new byte[size];
+
+        for (int i = 0; i < size; i++)
+        {
+            samples[i] = (byte)(i * 31 + seed);
+        }
+
+        return new PcmAudio(format, ByteBuffer.wrap(samples));
+    }
+
+    private static byte[] bytes(PcmAudio audio)
+    {
+        byte[] bytes = new byte[audio.size()];
+        audio.getData().get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void returnsStoredAudio() throws IOException
+    {
+        PcmAudio audio = audio(FORMAT, 4000, 1);
+
+        try (PersistentAudioCache cache = new PersistentAudioCache(this.directory, 1024 * 1024))
+        {
+            assertNull(cache.get(key("hello", "voice")));
+            cache.put(key("hello", "voice"), audio);
+
+            PcmAudio cached = cache.get(key("hello", "voice"));
+            assertNotNull(cached);
+            assertEquals(FORMAT.toString(), cached.getFormat().toString());
+            assertArrayEquals(bytes(audio), bytes(cached));
+            assertEquals(1, cache.getHits());
+            assertEquals(1, cache.getMisses());
+        }
+    }
+
+    @Test
+    public void keepsEntriesAfterReopening() throws IOException
+    {
+        PcmAudio first = audio(FORMAT, 3000, 1);
+        PcmAudio second = audio(FORMAT, 5000, 2);
+
+        try (PersistentAudioCache cache = new PersistentAudioCache(this.directory, 1024 * 1024))
+        {
+            cache.put(key("first", "voice"), first);
+            cache.put(key("second", "voice"), second);
+        }
+
+        try (PersistentAudioCache cache = new PersistentAudioCache(this.directory, 1024 * 1024))
+        {
+            assertEquals(2, cache.size());
+            assertArrayEquals(bytes(first), bytes(cache.get(key("first", "voice"))));
+            assertArrayEquals(bytes(second), bytes(cache.get(key("second", "voice"))));
+        }
+    }
+
+    @Test
+    public void formatChangeInvalidatesTheEntriesOfTheVoice() throws IOException
+    {
+        try (PersistentAudioCache cache = new PersistentAudioCache(this.directory, 1024 * 1024))
+        {
+            cache.put(key("old", "voice"), audio(FORMAT, 1000, 1));
+            cache.put(key("other", "other voice"), audio(FORMAT, 1000, 2));
+
+            // the voice now produces a different format, i.e. after an update
+            cache.put(key("new", "voice"), audio(OTHER_FORMAT, 1000, 3));
+
+            assertNull(cache.get(key("old", "voice")));
+            assertNotNull(cache.get(key("new", "voice")));
+            assertNotNull(cache.get(key("other", "other voice")));
+        }
+
+        try (PersistentAudioCache cache = new PersistentAudioCache(this.directory, 1024 * 1024))
+        {
+            assertNull(cache.get(key("old", "voice")));
+            assertEquals(OTHER_FORMAT.toString(), cache.get(key("new", "voice")).getFormat().toString());
+            assertNotNull(cache.get(key("other", "other voice")));
+        }
+    }
+
+    @Test
+    public void skipsAudioLargerThanTheSegment() throws IOException
+    {
+        try (PersistentAudioCache cache = new PersistentAudioCache(this.directory, 1000))
+        {
+            cache.put(key("large", "voice"), audio(FORMAT, 2000, 1));
+
+            assertNull(cache.get(key("large", "voice")));
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void compactsOnceTheSegmentIsFull() throws IOException
+    {
+        try (PersistentAudioCache cache = new PersistentAudioCache(this.directory, 10000))
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                cache.put(key("text " + i, "voice"), audio(FORMAT, 2000, i));
+            }
+
+            assertTrue(cache.getCompactions() > 0);
+            assertTrue(cache.getSegmentSize() <= 10000);
+            assertArrayEquals(bytes(audio(FORMAT, 2000, 9)), bytes(cache.get(key("text 9", "voice"))));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package bt.speech.tts;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author &#8904
+ */
+public class SentenceSplitterTest
+{
+    @Test
+    public void splitsIntoSentences()
+    {
+        List<String> chunks = SentenceSplitter.split("Hello there. How are you?  Fine! ", Locale.US, 200);
+
+        assertEquals(Arrays.asList("Hello there.", "How are you?", "Fine!"), chunks);
+    }
+
+    @Test
+    public void splitsLongSentencesAtPhraseBreaks()
+    {
+        List<String> chunks = SentenceSplitter.split("one two three, four five six", Locale.US, 20);
+
+        assertEquals(Arrays.asList("one two three,", "four five six"), chunks);
+    }
+
+    @Test
+    public void splitsLongSentencesWithoutPhraseBreaksAtWhitespace()
+    {
+        List<String> chunks = SentenceSplitter.split("alpha beta gamma delta", Locale.US, 12);
+
+        assertEquals(Arrays.asList("alpha beta", "gamma delta"), chunks);
+    }
+
+    @Test
+    public void cutsWordsLongerThanTheMaximum()
+    {
+        List<String> chunks = SentenceSplitter.split("abcdefghij", Locale.US, 4);
+
+        assertEquals(Arrays.asList("abcd", "efgh", "ij"), chunks);
+    }
+
+    @Test
+    public void chunksNeverExceedTheMaximum()
+    {
+        String text = "This is a rather long sentence, with several phrases; some of them: quite long and winding, "
+                + "that goes on and on without ever really coming to an end. Short one.";
+
+        for (String chunk : SentenceSplitter.split(text, Locale.US, 30))
+        {
+            assertTrue(!chunk.isEmpty() && chunk.length() <= 30, chunk);
+        }
+    }
+
+    @Test
+    public void blankTextHasNoChunks()
+    {
+        assertTrue(SentenceSplitter.split("", Locale.US, 100).isEmpty());
+        assertTrue(SentenceSplitter.split("   ", Locale.US, 100).isEmpty());
+    }
+}
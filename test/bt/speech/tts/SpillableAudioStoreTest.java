@@ -0,0 +1,188 @@
+package bt.speech.tts;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author &#8904
+ */
+public class SpillableAudioStoreTest
+{
+    @AfterEach
+    public void restoreDefaults()
+    {
+        SpillableAudioStore.setRequestBudget(SpillableAudioStore.DEFAULT_REQUEST_BUDGET);
+        SpillableAudioStore.setGlobalBudget(SpillableAudioStore.DEFAULT_GLOBAL_BUDGET);
+        SpillableAudioStore.setPoolCapacity(SpillableAudioStore.DEFAULT_POOL_CAPACITY);
+    }
+
+    private static byte[] content(int size)
+    {
+        byte[] content = new byte[size];
+
+        for (int i = 0; i < size; i++)
+        {
+            content[i] = (byte)(i * 7);
+        }
+
+        return content;
+    }
+
+    private static byte[] readAll(SpillableAudioStore store) throws IOException
+    {
+        try (InputStream in = store.toInputStream())
+        {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    public void keepsSmallContentInMemory() throws IOException
+    {
+        byte[] content = content(1000);
+        long bytesInUse = SpillableAudioStore.getBytesInUse();
+
+        try (SpillableAudioStore store = new SpillableAudioStore())
+        {
+            store.write(content);
+
+            assertFalse(store.isSpilled());
+            assertEquals(content.length, store.size());
+            assertEquals(bytesInUse + SpillableAudioStore.CHUNK_SIZE, SpillableAudioStore.getBytesInUse());
+            assertArrayEquals(content, readAll(store));
+        }
+
+        assertEquals(bytesInUse, SpillableAudioStore.getBytesInUse());
+    }
+
+    @Test
+    public void spillsPastTheRequestBudget() throws IOException
+    {
+        SpillableAudioStore.setRequestBudget(SpillableAudioStore.CHUNK_SIZE);
+        byte[] content = content(2 * SpillableAudioStore.CHUNK_SIZE + 10);
+        long spills = SpillableAudioStore.getSpillCount();
+        long bytesInUse = SpillableAudioStore.getBytesInUse();
+
+        try (SpillableAudioStore store = new SpillableAudioStore())
+        {
+            store.write(content, 0, 100);
+            assertFalse(store.isSpilled());
+
+            store.write(content, 100, content.length - 100);
+            assertTrue(store.isSpilled());
+            assertEquals(spills + 1, SpillableAudioStore.getSpillCount());
+            // the chunks went back when the content was moved to the file
+            assertEquals(bytesInUse, SpillableAudioStore.getBytesInUse());
+            assertArrayEquals(content, readAll(store));
+        }
+    }
+
+    @Test
+    public void spillsPastTheGlobalBudget() throws IOException
+    {
+        SpillableAudioStore.setGlobalBudget(SpillableAudioStore.getBytesInUse());
+        byte[] content = content(1000);
+
+        try (SpillableAudioStore store = new SpillableAudioStore())
+        {
+            store.write(content);
+
+            assertTrue(store.isSpilled());
+            assertArrayEquals(content, readAll(store));
+        }
+    }
+
+    @Test
+    public void refusesWritesOnceRead() throws IOException
+    {
+        try (SpillableAudioStore store = new SpillableAudioStore())
+        {
+            store.write(content(10));
+            store.toInputStream().close();
+
+            assertThrows(IOException.class, () -> store.write(content(10)));
+        }
+    }
+
+    @Test
+    public void refusesUseOnceClosed()
+    {
+        SpillableAudioStore store = new SpillableAudioStore();
+        store.close();
+
+        assertThrows(IOException.class, () -> store.write(content(10)));
+        assertThrows(IOException.class, store::toInputStream);
+    }
+
+    @Test
+    public void streamsOutliveTheStore() throws IOException
+    {
+        byte[] content = content(3 * SpillableAudioStore.CHUNK_SIZE);
+        long bytesInUse = SpillableAudioStore.getBytesInUse();
+        SpillableAudioStore store = new SpillableAudioStore();
+        store.write(content);
+
+        try (InputStream in = store.toInputStream())
+        {
+            store.close();
+
+            assertEquals(bytesInUse + 3 * SpillableAudioStore.CHUNK_SIZE, SpillableAudioStore.getBytesInUse());
+            assertArrayEquals(content, in.readAllBytes());
+        }
+
+        assertEquals(bytesInUse, SpillableAudioStore.getBytesInUse());
+    }
+
+    @Test
+    public void poolKeepsAtMostItsCapacity() throws IOException
+    {
+        SpillableAudioStore.setPoolCapacity(0);
+        SpillableAudioStore.setPoolCapacity(2);
+
+        try (SpillableAudioStore store = new SpillableAudioStore())
+        {
+            store.write(content(4 * SpillableAudioStore.CHUNK_SIZE));
+        }
+
+        assertEquals(2, SpillableAudioStore.getPooledBufferCount());
+
+        SpillableAudioStore.setPoolCapacity(1);
+        assertEquals(1, SpillableAudioStore.getPooledBufferCount());
+    }
+
+    @Test
+    public void reusesPooledBuffers() throws IOException
+    {
+        SpillableAudioStore.setPoolCapacity(0);
+        SpillableAudioStore.setPoolCapacity(1);
+
+        try (SpillableAudioStore store = new SpillableAudioStore())
+        {
+            store.write(content(10));
+        }
+
+        assertEquals(1, SpillableAudioStore.getPooledBufferCount());
+
+        try (SpillableAudioStore store = new SpillableAudioStore())
+        {
+            store.write(content(10));
+            assertEquals(0, SpillableAudioStore.getPooledBufferCount());
+            assertArrayEquals(content(10), readAll(store));
+        }
+    }
+
+    @Test
+    public void rejectsANegativePoolCapacity()
+    {
+        assertThrows(IllegalArgumentException.class, () -> SpillableAudioStore.setPoolCapacity(-1));
+    }
+}
@@ -0,0 +1,109 @@
+package bt.speech.tts;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author &#8904
+ */
+public class WorkerProtocolTest
+{
+    /** Multi byte UTF-8, written as escapes so the test compiles with any source encoding. */
+    private static final String TEXT = "Gr\u00fc\u00dfe, \u263a!";
+
+    private static DataInputStream input(ByteArrayOutputStream written)
+    {
+        return new DataInputStream(new ByteArrayInputStream(written.toByteArray()));
+    }
+
+    @Test
+    public void roundTripsRequests() throws IOException
+    {
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        SynthesisOptions options = new SynthesisOptions("cmu-slt-hsmm", null, "happy");
+        WorkerProtocol.writeRequest(new DataOutputStream(written), 42, TEXT, options);
+
+        WorkerProtocol.Request request = WorkerProtocol.readRequest(input(written));
+
+        assertEquals(42, request.id);
+        assertEquals(TEXT, request.text);
+        assertEquals("cmu-slt-hsmm", request.options.getVoice());
+        assertNull(request.options.getSynthesisEffects());
+        assertEquals("happy", request.options.getStyle());
+    }
+
+    @Test
+    public void roundTripsAudio() throws IOException
+    {
+        AudioFormat format = new AudioFormat(22050, 16, 2, true, true);
+        byte[] samples = {1, 2, 3, 4, 5, 6, 7, 8};
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        WorkerProtocol.writeAudio(new DataOutputStream(written), 7, new PcmAudio(format, ByteBuffer.wrap(samples)));
+
+        WorkerProtocol.Response response = WorkerProtocol.readResponse(input(written));
+
+        assertEquals(7, response.id);
+        assertEquals(WorkerProtocol.STATUS_OK, response.status);
+        assertNull(response.message);
+        assertEquals(22050, response.audio.getFormat().getSampleRate(), 0);
+        assertEquals(16, response.audio.getFormat().getSampleSizeInBits());
+        assertEquals(2, response.audio.getFormat().getChannels());
+        assertEquals(AudioFormat.Encoding.PCM_SIGNED, response.audio.getFormat().getEncoding());
+        assertTrue(response.audio.getFormat().isBigEndian());
+
+        byte[] read = new byte[response.audio.size()];
+        response.audio.getData().get(read);
+        assertArrayEquals(samples, read);
+    }
+
+    @Test
+    public void roundTripsErrors() throws IOException
+    {
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        WorkerProtocol.writeError(new DataOutputStream(written), 3, WorkerProtocol.STATUS_REJECTED, "Memory is very low");
+
+        WorkerProtocol.Response response = WorkerProtocol.readResponse(input(written));
+
+        assertEquals(3, response.id);
+        assertEquals(WorkerProtocol.STATUS_REJECTED, response.status);
+        assertEquals("Memory is very low", response.message);
+        assertNull(response.audio);
+    }
+
+    @Test
+    public void readsConsecutiveFrames() throws IOException
+    {
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(written);
+        AudioFormat format = new AudioFormat(16000, 16, 1, true, false);
+        WorkerProtocol.writeAudio(out, 1, new PcmAudio(format, ByteBuffer.allocate(0)));
+        WorkerProtocol.writeError(out, 2, WorkerProtocol.STATUS_FAILED, null);
+        WorkerProtocol.writeAudio(out, 3, new PcmAudio(format, ByteBuffer.allocate(100)));
+
+        DataInputStream in = input(written);
+
+        assertEquals(0, WorkerProtocol.readResponse(in).audio.size());
+
+        WorkerProtocol.Response failed = WorkerProtocol.readResponse(in);
+        assertEquals(WorkerProtocol.STATUS_FAILED, failed.status);
+        assertNull(failed.message);
+
+        WorkerProtocol.Response last = WorkerProtocol.readResponse(in);
+        assertEquals(3, last.id);
+        assertEquals(100, last.audio.size());
+        assertEquals(-1, in.read());
+    }
+}